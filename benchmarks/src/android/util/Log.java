@@ -0,0 +1,35 @@
+package android.util;
+
+/**
+ * Stands in for the framework's Log, whose natives are missing on the JVM.
+ * Classes built here are shaded in ahead of android-all, so this one wins.
+ */
+public final class Log {
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	private Log() {
+	}
+
+	public static boolean isLoggable(String tag, int level) {
+		return false;
+	}
+
+	public static int d(String tag, String msg) {
+		return 0;
+	}
+
+	public static int w(String tag, String msg) {
+		System.err.println(tag + ": " + msg);
+		return 0;
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+		System.err.println(tag + ": " + msg + ": " + tr);
+		return 0;
+	}
+
+}
@@ -0,0 +1,109 @@
+package org.sgnexus.relativeautobright;
+
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.sgnexus.relativeautobright.Data.OnDataChangedListener;
+
+/**
+ * One lux change delivered to 1, 4 or 16 listeners: through Data's
+ * ChangeListeners, and through java.util.Observable with string keys as
+ * Data used to. "Subscribed" has only one of the listeners asking for lux
+ * changes, as with the service and the settings screen. "dataSetLux" is
+ * the whole of Data.setLux() with the same subscriptions: the value, the
+ * status snapshot, dispatch and its metrics.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+	@Param({ "1", "4", "16" })
+	public int listeners;
+
+	private final ChangeListeners mAll = new ChangeListeners(Data.CHANGE_COUNT);
+	private final ChangeListeners mSubscribed = new ChangeListeners(
+			Data.CHANGE_COUNT);
+	private final KeyedObservable mObservable = new KeyedObservable();
+	// Detached from prefs and settings
+	private final Data mData = new Data();
+	private int mSeen = 0;
+	private float mLux = 100;
+
+	@Setup
+	public void setUp() {
+		for (int i = 0; i < listeners; i++) {
+			OnDataChangedListener listener = new OnDataChangedListener() {
+				@Override
+				public void onDataChanged(int change) {
+					if (change == Data.CHANGE_LUX) {
+						mSeen++;
+					}
+				}
+			};
+			mAll.add(listener, Data.ALL_CHANGES);
+			mSubscribed.add(listener, i == 0 ? 1 << Data.CHANGE_LUX
+					: 1 << Data.CHANGE_SENSE_INTERVAL);
+			mData.addListener(listener, i == 0 ? 1 << Data.CHANGE_LUX
+					: 1 << Data.CHANGE_SENSE_INTERVAL);
+
+			mObservable.addObserver(new Observer() {
+				@Override
+				public void update(Observable observable, Object key) {
+					if (Data.LUX.equals(key)) {
+						mSeen++;
+					}
+				}
+			});
+		}
+	}
+
+	@Benchmark
+	public int changeListeners() {
+		mAll.dispatch(Data.CHANGE_LUX);
+		return mSeen;
+	}
+
+	@Benchmark
+	public int changeListenersSubscribed() {
+		mSubscribed.dispatch(Data.CHANGE_LUX);
+		return mSeen;
+	}
+
+	@Benchmark
+	public int dataSetLux() {
+		// A new value every time, so every call dispatches
+		mLux = mLux == 100 ? 200 : 100;
+		mData.setLux(mLux);
+		return mSeen;
+	}
+
+	@Benchmark
+	public int observable() {
+		mObservable.changed(Data.LUX);
+		return mSeen;
+	}
+
+	static private class KeyedObservable extends Observable {
+		void changed(String key) {
+			setChanged();
+			notifyObservers(key);
+		}
+	}
+
+}
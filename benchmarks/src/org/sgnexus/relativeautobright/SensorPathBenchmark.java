@@ -0,0 +1,152 @@
+package org.sgnexus.relativeautobright;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One light reading through BrightnessPipeline, the code
+ * MainService.onSensorChanged calls: occlusion gate, scheduler, power
+ * budget, filters, strategy, trace, warm start, ramp and status. The
+ * readings flicker and step between rooms, so most of them move the
+ * brightness; ramp steps due before the next reading run as part of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensorPathBenchmark {
+	static private final int READINGS = 2048;
+
+	private final Metrics mMetrics = new Metrics();
+	private final StatusSnapshot mStatus = new StatusSnapshot();
+	private final float[] mReadings = new float[READINGS];
+
+	private File mDir;
+	private TraceRecorder mRecorder;
+	private BrightnessPipeline mPipeline;
+
+	private int mIndex = 0;
+	private long mNow = 1;
+	private long mNextStep = Long.MAX_VALUE;
+
+	private final BrightnessPipeline.Host mHost = new BrightnessPipeline.Host() {
+		@Override
+		public long uptimeMillis() {
+			return mNow;
+		}
+
+		@Override
+		public long currentTimeMillis() {
+			return mNow;
+		}
+
+		@Override
+		public void publishLux(float lux) {
+		}
+
+		@Override
+		public boolean writeBrightness(int brightness) {
+			mStatus.publish(mPipeline.getLux(), brightness, 50);
+			return true;
+		}
+
+		@Override
+		public BrightnessSink getWindowSink() {
+			return null;
+		}
+
+		@Override
+		public void scheduleRampStep(long delayMs) {
+			mNextStep = mNow + delayMs;
+		}
+
+		@Override
+		public void cancelRampStep() {
+			mNextStep = Long.MAX_VALUE;
+		}
+
+		@Override
+		public void onPowerBudgetChanged() {
+		}
+
+		@Override
+		public void record(float lux, int level, int brightness,
+				boolean written) {
+			mRecorder.record(mNow, lux, level, brightness, written);
+		}
+	};
+
+	@Setup
+	public void setUp() throws IOException {
+		mDir = File.createTempFile("sensor-path", "");
+		mDir.delete();
+		mDir.mkdir();
+		mRecorder = new TraceRecorder(mDir);
+		WarmStart warmStart = new WarmStart(new File(mDir, "warm_start.bin"));
+		warmStart.open();
+		mPipeline = new BrightnessPipeline(mHost, mMetrics, warmStart,
+				new LearningStrategy(new LookupTableStrategy(
+						new DefaultStrategy())));
+		mPipeline.setSenseInterval(2000);
+		mPipeline.setWakeUpBudget(1000);
+		mPipeline.setLuxFilter(3, 50, 10);
+		mPipeline.setRampDuration(500);
+		mPipeline.setBrightness(0);
+
+		for (int i = 0; i < READINGS; i++) {
+			float base = (i / 512) % 2 == 0 ? 80 : 900;
+			mReadings[i] = base * (1 + 0.3f * (float) Math.sin(i * 0.7));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		File[] files = mDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mDir.delete();
+	}
+
+	@Benchmark
+	public int reading() {
+		int i = mIndex;
+		mIndex = (i + 1) & (READINGS - 1);
+		return onReading(mReadings[i], i % 97 == 0);
+	}
+
+	private int onReading(float raw, boolean near) {
+		long start = System.nanoTime();
+		mMetrics.sensorEvents.increment();
+		mPipeline.onWakeUp();
+		mPipeline.setNear(near);
+		long next = mNow + mPipeline.onReading(raw);
+		// Ramp steps due before the next reading, as the handler would run
+		while (mNextStep <= next) {
+			mNow = mNextStep;
+			mNextStep = Long.MAX_VALUE;
+			mPipeline.stepRamp();
+		}
+		mNow = next;
+		mMetrics.sensorEventTime.recordSince(start);
+		return mPipeline.getBrightness();
+	}
+
+}
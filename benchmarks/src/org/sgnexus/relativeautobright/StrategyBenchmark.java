@@ -0,0 +1,79 @@
+package org.sgnexus.relativeautobright;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * computeBrightness for each strategy, over lux values spread across the
+ * sensor's range so no single branch or bucket is favoured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrategyBenchmark {
+	static private final int SAMPLES = 1024;
+
+	private final float[] mLux = new float[SAMPLES];
+	private final int[] mLevel = new int[SAMPLES];
+	private int mIndex = 0;
+
+	private DefaultStrategy mDefault;
+	private LookupTableStrategy mLookupTable;
+	private LearningStrategy mLearning;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(1);
+		for (int i = 0; i < SAMPLES; i++) {
+			// Log-uniform from 0 to 64k lux
+			mLux[i] = (float) Math.pow(2, random.nextFloat() * 16) - 1;
+			mLevel[i] = 1 + random.nextInt(Data.MAX_RELATIVE_LEVEL - 1);
+		}
+
+		mDefault = new DefaultStrategy();
+		mLookupTable = new LookupTableStrategy(mDefault);
+		mLearning = new LearningStrategy(mLookupTable);
+		for (int i = 0; i < 40; i++) {
+			mLearning.learnAdjustment(mLux[i], mLevel[i], i % 3 == 0 ? -1 : 1);
+		}
+	}
+
+	@Benchmark
+	public int defaultStrategy() {
+		int i = next();
+		return mDefault.computeBrightness(mLux[i], mLevel[i]);
+	}
+
+	@Benchmark
+	public int lookupTableStrategy() {
+		int i = next();
+		return mLookupTable.computeBrightness(mLux[i], mLevel[i]);
+	}
+
+	@Benchmark
+	public int learningStrategy() {
+		int i = next();
+		return mLearning.computeBrightness(mLux[i], mLevel[i]);
+	}
+
+	private int next() {
+		int i = mIndex;
+		mIndex = (i + 1) & (SAMPLES - 1);
+		return i;
+	}
+
+}
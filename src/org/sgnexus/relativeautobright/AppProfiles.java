@@ -0,0 +1,108 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Relative level offsets per app, keyed by the hash of the package name.
+ * Open addressing over two flat arrays so a lookup is one hash and, almost
+ * always, one probe. Two packages with the same hash share an offset, which
+ * is fine for a handful of user-picked apps.
+ */
+class AppProfiles {
+	static final AppProfiles EMPTY = new AppProfiles(0);
+
+	// Hash 0 marks an empty slot, so real zero hashes are moved to this
+	static private final int ZERO_HASH = 1;
+
+	private final int[] mKeys;
+	private final byte[] mOffsets;
+	private final int mMask;
+	private int mSize = 0;
+
+	AppProfiles(int expectedSize) {
+		// Power of two, at most half full
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 1) * 2) * 2;
+		mKeys = new int[capacity];
+		mOffsets = new byte[capacity];
+		mMask = capacity - 1;
+	}
+
+	/**
+	 * Parse profiles such as "com.example.video=+20 com.example.reader=-15";
+	 * entries that don't parse are skipped.
+	 */
+	static AppProfiles parse(String config) {
+		if (config == null || config.trim().length() == 0) {
+			return EMPTY;
+		}
+
+		String[] entries = config.trim().split("[\\s,;]+");
+		AppProfiles profiles = new AppProfiles(entries.length);
+		for (String entry : entries) {
+			int split = entry.indexOf('=');
+			if (split <= 0) {
+				continue;
+			}
+
+			String value = entry.substring(split + 1);
+			if (value.startsWith("+")) {
+				value = value.substring(1);
+			}
+			try {
+				profiles.put(entry.substring(0, split), Integer.parseInt(value));
+			} catch (NumberFormatException e) {
+				// Skip the entry
+			}
+		}
+		return profiles;
+	}
+
+	private void put(String packageName, int offset) {
+		offset = Math.min(Math.max(offset, -Data.MAX_RELATIVE_LEVEL),
+				Data.MAX_RELATIVE_LEVEL);
+		int key = keyOf(packageName);
+		int slot = slotOf(key);
+
+		if (mKeys[slot] == 0) {
+			if (mSize == mKeys.length / 2) {
+				return; // full, more entries than expected
+			}
+			mKeys[slot] = key;
+			mSize++;
+		}
+		mOffsets[slot] = (byte) offset;
+	}
+
+	/**
+	 * Offset for the app, or 0 if it has no profile.
+	 */
+	int offsetFor(String packageName) {
+		if (mSize == 0 || packageName == null) {
+			return 0;
+		}
+
+		int key = keyOf(packageName);
+		int slot = slotOf(key);
+		return mKeys[slot] == key ? mOffsets[slot] : 0;
+	}
+
+	int size() {
+		return mSize;
+	}
+
+	/**
+	 * Slot holding key, or the empty slot where it would go.
+	 */
+	private int slotOf(int key) {
+		// Spread the bits; package names often share long prefixes
+		int slot = (key ^ (key >>> 16)) * 0x9E3779B9 & mMask;
+		while (mKeys[slot] != 0 && mKeys[slot] != key) {
+			slot = (slot + 1) & mMask;
+		}
+		return slot;
+	}
+
+	static private int keyOf(String packageName) {
+		int hash = packageName.hashCode();
+		return hash == 0 ? ZERO_HASH : hash;
+	}
+
+}
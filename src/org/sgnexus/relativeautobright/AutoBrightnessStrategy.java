@@ -3,6 +3,16 @@ package org.sgnexus.relativeautobright;
 abstract class AutoBrightnessStrategy {
 	final int MIN = 0;
 	final int MAX = 255;
+	static final float[] NO_BREAKPOINTS = new float[0];
 
-	abstract int computeBrightness(Data data);
+	abstract int computeBrightness(float lux, int relativeLevel);
+
+	/**
+	 * Lux values where the curve jumps: brightness from each one up may
+	 * differ from just below it. Lets anything that samples the curve, such
+	 * as LookupTableStrategy, sample on both sides.
+	 */
+	float[] getBreakpoints() {
+		return NO_BREAKPOINTS;
+	}
 }
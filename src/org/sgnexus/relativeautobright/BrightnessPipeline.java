@@ -0,0 +1,467 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Everything between a light reading and a brightness write: occlusion
+ * gate, sense scheduler, power budget, lux filter, strategy at the
+ * scheduled level, ramp, window sink, warm start and trace. MainService
+ * feeds it sensor events and timer callbacks; TraceReplayer, the tests and
+ * the benchmarks drive the very same code on a simulated clock. Clocks,
+ * timers and the setting itself are reached through Host, so nothing here
+ * needs Android. Not thread safe: the service only calls it on its sensor
+ * thread.
+ */
+class BrightnessPipeline {
+	// Predictions this close to the first real result count as hits
+	static final int WARM_START_TOLERANCE = 8;
+
+	interface Host {
+		long uptimeMillis();
+
+		long currentTimeMillis();
+
+		/**
+		 * The filtered lux changed.
+		 */
+		void publishLux(float lux);
+
+		/**
+		 * Write the brightness setting; returns true if it was written.
+		 */
+		boolean writeBrightness(int brightness);
+
+		/**
+		 * One of our windows while it is in front, or null.
+		 */
+		BrightnessSink getWindowSink();
+
+		/**
+		 * Call stepRamp() after delayMs, replacing a call already pending.
+		 */
+		void scheduleRampStep(long delayMs);
+
+		void cancelRampStep();
+
+		/**
+		 * The power budget level changed the base sense interval and the
+		 * filter.
+		 */
+		void onPowerBudgetChanged();
+
+		/**
+		 * A brightness decision, and whether it wrote the setting, for the
+		 * trace.
+		 */
+		void record(float lux, int level, int brightness, boolean written);
+	}
+
+	private final Host mHost;
+	private final Metrics mMetrics;
+	private final WarmStart mWarmStart;
+	private final OcclusionGate mGate = new OcclusionGate();
+	// Budget is set once settings load; accounting starts right away
+	private final PowerBudget mBudget = new PowerBudget(0);
+	private final SenseScheduler mScheduler;
+	private final BrightnessRamp mRamp;
+	private final CircadianSchedule mSchedule = new CircadianSchedule();
+	private AutoBrightnessStrategy mStrategy;
+
+	private LuxFilter mFilter;
+	private int mMedianWindow = 1;
+	private int mSmoothing = 0;
+	private int mHysteresis = 0;
+	private long mSenseIntervalMs = Data.DEFAULT_SENSE_INTERVAL;
+
+	// The user's level with the app offset, and without it
+	private int mRelativeLevel = 50;
+	private int mBaseLevel = 50;
+	// Level last passed to the strategy, schedule offset included
+	private int mScheduledLevel = 50;
+	private int mScheduleOffset = 0;
+
+	private float mLux = -1.0f;
+	// Brightness last written, or -1 if unknown
+	private int mBrightness = -1;
+	private long mLastApplyTime = 0;
+
+	// When the pending prediction was applied (uptime), or -1 once a real
+	// reading has corrected it
+	private long mWarmStartTime = -1;
+	private int mWarmStartBrightness;
+
+	/**
+	 * @param warmStart
+	 *            saved on every reading; if never open()ed it only lives in
+	 *            memory
+	 */
+	BrightnessPipeline(Host host, Metrics metrics, WarmStart warmStart,
+			AutoBrightnessStrategy strategy) {
+		mHost = host;
+		mMetrics = metrics;
+		mWarmStart = warmStart;
+		mStrategy = strategy;
+		mScheduler = new SenseScheduler(mSenseIntervalMs,
+				Data.MAX_SENSE_BACKOFF);
+		mRamp = new BrightnessRamp(0, Data.RAMP_STEPS_PER_SECOND);
+		mFilter = createFilter();
+	}
+
+	void setStrategy(AutoBrightnessStrategy strategy) {
+		mStrategy = strategy;
+	}
+
+	void setLuxFilter(int medianWindow, int smoothingPercent,
+			int hysteresisPercent) {
+		mMedianWindow = medianWindow;
+		mSmoothing = smoothingPercent;
+		mHysteresis = hysteresisPercent;
+		mFilter = createFilter();
+	}
+
+	void setSenseInterval(long intervalMs) {
+		mSenseIntervalMs = Math.max(intervalMs, 1);
+		mScheduler.setBaseInterval(getBaseSenseInterval());
+	}
+
+	void setRampDuration(long durationMs) {
+		mRamp.setDuration(durationMs);
+	}
+
+	void setWakeUpBudget(int wakeUpsPerHour) {
+		if (mBudget.setBudget(wakeUpsPerHour)) {
+			applyPowerBudget();
+		}
+	}
+
+	void setSchedule(String config) {
+		mSchedule.configure(config);
+	}
+
+	/**
+	 * @param relativeLevel
+	 *            the user's level with the foreground app's offset
+	 * @param baseLevel
+	 *            the user's level alone, so an offset never turns sensing
+	 *            off
+	 */
+	void setLevel(int relativeLevel, int baseLevel) {
+		mRelativeLevel = relativeLevel;
+		mBaseLevel = baseLevel;
+	}
+
+	/**
+	 * The brightness the setting holds, to ramp from.
+	 */
+	void setBrightness(int brightness) {
+		mBrightness = brightness;
+	}
+
+	/**
+	 * A timer woke the service for something other than a ramp step, e.g.
+	 * to resume sensing.
+	 */
+	void onWakeUp() {
+		mBudget.onWakeUp();
+	}
+
+	void setNear(boolean near) {
+		mGate.setNear(near, mHost.uptimeMillis());
+	}
+
+	boolean isNear() {
+		return mGate.isNear();
+	}
+
+	/**
+	 * Forget the proximity state; unknown until the sensor reports again.
+	 */
+	void resetNear() {
+		mGate.reset();
+	}
+
+	/**
+	 * Whether a light reading taken now counts; covered ones are counted
+	 * and dropped, keeping the current brightness rather than dimming now
+	 * and brightening again when uncovered.
+	 */
+	boolean accept() {
+		if (mGate.accept(mHost.uptimeMillis())) {
+			return true;
+		}
+		mMetrics.occludedSamples.increment();
+		return false;
+	}
+
+	/**
+	 * One reading in pause mode; returns how long to pause the sensor
+	 * before the next.
+	 */
+	long onReading(float lux) {
+		if (!accept()) {
+			return mScheduler.getInterval();
+		}
+
+		long interval = mScheduler.nextInterval(lux);
+		onLux(mFilter.filter(lux));
+		return interval;
+	}
+
+	/**
+	 * Readings that passed accept(), delivered together in batch mode.
+	 */
+	void onBatch(float[] lux, int count) {
+		if (count == 0) {
+			return;
+		}
+
+		float filtered = 0;
+		for (int i = 0; i < count; i++) {
+			filtered = mFilter.filter(lux[i]);
+		}
+		onLux(filtered);
+	}
+
+	private void onLux(float lux) {
+		if (mBudget.update(mHost.uptimeMillis())) {
+			applyPowerBudget();
+		}
+
+		long wallMs = mHost.currentTimeMillis();
+		if (Float.compare(lux, mLux) != 0) {
+			mLux = lux;
+			mHost.publishLux(lux);
+			refresh(wallMs);
+		} else if (mWarmStartTime >= 0
+				|| mSchedule.offsetAt(wallMs) != mScheduleOffset) {
+			// Replace a prediction, or follow the schedule, even while the
+			// light is steady
+			refresh(wallMs);
+		}
+
+		if (mWarmStartTime >= 0) {
+			finishWarmStart();
+		}
+
+		// Only saved here, so level or schedule changes never make an old
+		// reading look fresh
+		if (!atEndLevel()) {
+			mWarmStart.save(wallMs, lux, getTarget());
+		}
+	}
+
+	/**
+	 * Bring the brightness up to date with the level and schedule. Returns
+	 * false at the end levels, where the brightness is fixed and light
+	 * sensing should stop.
+	 */
+	boolean update() {
+		if (mBaseLevel == Data.MIN_RELATIVE_LEVEL) {
+			mScheduledLevel = mRelativeLevel;
+			moveTo(Data.MIN_BRIGHTNESS, false);
+			return false;
+		} else if (mBaseLevel == Data.MAX_RELATIVE_LEVEL) {
+			mScheduledLevel = mRelativeLevel;
+			moveTo(Data.MAX_BRIGHTNESS, false);
+			return false;
+		}
+
+		refresh(mHost.currentTimeMillis());
+		return true;
+	}
+
+	private boolean atEndLevel() {
+		return mBaseLevel == Data.MIN_RELATIVE_LEVEL
+				|| mBaseLevel == Data.MAX_RELATIVE_LEVEL;
+	}
+
+	private void refresh(long wallMs) {
+		if (atEndLevel()) {
+			return; // a reading that was already on its way
+		}
+
+		long start = System.nanoTime();
+		mScheduledLevel = scheduledLevel(wallMs);
+		long strategyStart = System.nanoTime();
+		int brightness = mStrategy.computeBrightness(mLux, mScheduledLevel);
+		mMetrics.strategyTime.recordSince(strategyStart);
+		moveTo(brightness, true);
+		mMetrics.updateBrightnessTime.recordSince(start);
+	}
+
+	/**
+	 * Relative level with the schedule offset for the given time applied.
+	 */
+	private int scheduledLevel(long wallMs) {
+		mScheduleOffset = mSchedule.offsetAt(wallMs);
+		return Math.min(Math.max(mRelativeLevel + mScheduleOffset,
+				Data.MIN_RELATIVE_LEVEL), Data.MAX_RELATIVE_LEVEL);
+	}
+
+	/**
+	 * Screen on: readings from before it went off are stale, but still the
+	 * best guess for the first frame. Returns the predicted brightness, or
+	 * -1 if there was nothing worth predicting.
+	 */
+	int onScreenOn() {
+		mFilter.reset();
+		mScheduler.reset();
+		return applyWarmStart();
+	}
+
+	/**
+	 * Show the brightness predicted from the saved reading straight away,
+	 * until the light sensor reports. Returns it, or -1 if none.
+	 */
+	int applyWarmStart() {
+		if (atEndLevel()) {
+			return -1;
+		}
+
+		long wallMs = mHost.currentTimeMillis();
+		int brightness = mWarmStart.predict(wallMs, mStrategy,
+				scheduledLevel(wallMs), mBrightness);
+		if (brightness < 0) {
+			return -1;
+		}
+
+		moveTo(brightness, false);
+		mWarmStartTime = mHost.uptimeMillis();
+		mWarmStartBrightness = brightness;
+		mMetrics.warmStarts.increment();
+		return brightness;
+	}
+
+	/**
+	 * Called once the first real reading after a prediction is applied.
+	 */
+	private void finishWarmStart() {
+		mMetrics.warmStartCorrectTime
+				.record((mHost.uptimeMillis() - mWarmStartTime) * 1000);
+		if (Math.abs(getTarget() - mWarmStartBrightness) <= WARM_START_TOLERANCE) {
+			mMetrics.warmStartHits.increment();
+		}
+		mWarmStartTime = -1;
+	}
+
+	/**
+	 * Move towards the given brightness and record it in the trace, with
+	 * whether the setting was written; later ramp steps that write are
+	 * recorded as they happen. With nothing known to ramp from, jumps.
+	 */
+	private void moveTo(int brightness, boolean animate) {
+		long now = mHost.uptimeMillis();
+		boolean written = false;
+
+		if (animate && mRamp.getDuration() > 0 && mBrightness >= 0) {
+			if (brightness != getTarget()) {
+				mRamp.start(mBrightness, brightness, now);
+				mHost.cancelRampStep();
+				written = step(now);
+			}
+		} else {
+			mRamp.stop();
+			mHost.cancelRampStep();
+			written = apply(brightness, now);
+		}
+
+		mHost.record(mLux, mScheduledLevel, brightness, written);
+	}
+
+	/**
+	 * Ramp timer callback. Returns true if this step wrote the setting.
+	 */
+	boolean stepRamp() {
+		mBudget.onWakeUp();
+		boolean written = step(mHost.uptimeMillis());
+		if (written) {
+			mHost.record(mLux, mScheduledLevel, mBrightness, true);
+		}
+		return written;
+	}
+
+	private boolean step(long now) {
+		BrightnessSink window = mHost.getWindowSink();
+		boolean written = false;
+		if (window != null) {
+			// Our window is in front: show the unrounded step there, and
+			// only bring the setting up to date now and then and at the end
+			float level = mRamp.levelAt(now);
+			window.setBrightness(level);
+			mMetrics.windowSteps.increment();
+			if (!mRamp.isRunning()
+					|| now - mLastApplyTime >= Data.BRIGHTNESS_RECONCILE_INTERVAL) {
+				written = apply(BrightnessWriter.toSetting(level), now);
+			}
+		} else {
+			written = apply(mRamp.valueAt(now), now);
+		}
+		if (mRamp.isRunning()) {
+			mHost.scheduleRampStep(mRamp.getStepInterval());
+		}
+		return written;
+	}
+
+	private boolean apply(int brightness, long now) {
+		if (brightness == mBrightness) {
+			return false;
+		}
+
+		mBrightness = brightness;
+		mLastApplyTime = now;
+		mBudget.onWrite();
+		return mHost.writeBrightness(brightness);
+	}
+
+	private void applyPowerBudget() {
+		mScheduler.setBaseInterval(getBaseSenseInterval());
+		mFilter = createFilter();
+		mHost.onPowerBudgetChanged();
+	}
+
+	private LuxFilter createFilter() {
+		return LuxFilterChain.create(mMedianWindow, mSmoothing, mHysteresis
+				+ mBudget.getExtraHysteresis());
+	}
+
+	/**
+	 * Sense interval preference, stretched by the power budget.
+	 */
+	long getBaseSenseInterval() {
+		return mSenseIntervalMs * mBudget.getIntervalScale();
+	}
+
+	float getLux() {
+		return mLux;
+	}
+
+	int getBrightness() {
+		return mBrightness;
+	}
+
+	/**
+	 * Where the brightness is headed: the ramp's target while one runs.
+	 */
+	int getTarget() {
+		return mRamp.isRunning() ? mRamp.getTarget() : mBrightness;
+	}
+
+	int getScheduledLevel() {
+		return mScheduledLevel;
+	}
+
+	int getScheduleOffset() {
+		return mScheduleOffset;
+	}
+
+	AutoBrightnessStrategy getStrategy() {
+		return mStrategy;
+	}
+
+	SenseScheduler getScheduler() {
+		return mScheduler;
+	}
+
+	PowerBudget getPowerBudget() {
+		return mBudget;
+	}
+
+}
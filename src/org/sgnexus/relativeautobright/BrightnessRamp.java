@@ -0,0 +1,95 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Interpolates brightness from one value to another over a fixed duration.
+ * Interpolation happens on the square root of the brightness (gamma 2) so
+ * steps look even to the eye rather than rushing through the dark end.
+ * Times are passed in so the ramp can be driven by any clock.
+ */
+class BrightnessRamp {
+	private long mDurationMs;
+	private final long mStepIntervalMs;
+
+	private float mFrom; // perceptual units
+	private float mTo;
+	private int mTarget;
+	private long mStartTime;
+	private boolean mRunning = false;
+
+	BrightnessRamp(long durationMs, int stepsPerSecond) {
+		mDurationMs = durationMs;
+		mStepIntervalMs = Math.max(1000 / Math.max(stepsPerSecond, 1), 1);
+	}
+
+	void setDuration(long durationMs) {
+		mDurationMs = durationMs;
+	}
+
+	long getDuration() {
+		return mDurationMs;
+	}
+
+	long getStepInterval() {
+		return mStepIntervalMs;
+	}
+
+	/**
+	 * Start ramping towards target; if already running, the ramp continues
+	 * from wherever it currently is.
+	 */
+	void start(int from, int target, long nowMs) {
+		if (mRunning) {
+			from = valueAt(nowMs);
+		}
+
+		mFrom = (float) Math.sqrt(from);
+		mTo = (float) Math.sqrt(target);
+		mTarget = target;
+		mStartTime = nowMs;
+		mRunning = from != target && mDurationMs > 0;
+	}
+
+	void stop() {
+		mRunning = false;
+	}
+
+	boolean isRunning() {
+		return mRunning;
+	}
+
+	int getTarget() {
+		return mTarget;
+	}
+
+	/**
+	 * Brightness at the given time; stops the ramp once the target is
+	 * reached.
+	 */
+	int valueAt(long nowMs) {
+		return Math.round(brightnessAt(nowMs));
+	}
+
+	/**
+	 * Like valueAt(), unrounded and as a fraction of full brightness, for
+	 * sinks finer than the 0-255 setting.
+	 */
+	float levelAt(long nowMs) {
+		return brightnessAt(nowMs) / Data.MAX_BRIGHTNESS;
+	}
+
+	private float brightnessAt(long nowMs) {
+		if (!mRunning) {
+			return mTarget;
+		}
+
+		long elapsed = nowMs - mStartTime;
+		if (elapsed >= mDurationMs) {
+			mRunning = false;
+			return mTarget;
+		}
+
+		float p = mFrom + (mTo - mFrom) * elapsed / mDurationMs;
+		return p * p;
+	}
+
+}
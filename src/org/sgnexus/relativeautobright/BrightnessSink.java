@@ -0,0 +1,11 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Somewhere to show a brightness: the system setting, one of our windows,
+ * or memory. Values are a fraction of full brightness, 0 to 1, at whatever
+ * resolution the producer has; each sink quantizes to what its target can
+ * take.
+ */
+interface BrightnessSink {
+	void setBrightness(float brightness);
+}
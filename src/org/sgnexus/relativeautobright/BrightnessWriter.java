@@ -0,0 +1,149 @@
+package org.sgnexus.relativeautobright;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.ContentResolver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+/**
+ * Writes Settings.System.SCREEN_BRIGHTNESS off the main thread. Requests
+ * arriving faster than the minimum write interval are coalesced so only the
+ * latest value is written. A value the setting already holds is not
+ * written again: the provider sends no change notification for it, and our
+ * own writes are told apart from others' by counting those notifications.
+ */
+class BrightnessWriter implements BrightnessSink {
+	static private final int NONE = -1;
+
+	private final ContentResolver mResolver;
+	private final long mMinIntervalMs;
+	private final Handler mHandler;
+
+	private final AtomicInteger mPending = new AtomicInteger(NONE);
+	// Writes whose content observer callback has not been seen yet
+	private final AtomicInteger mPendingEchoes = new AtomicInteger();
+	private final Metrics mMetrics;
+	// Uptime to measure the next actual write from, or NONE
+	private final AtomicLong mTraceStart = new AtomicLong(NONE);
+	private volatile long mLastWriteTime = 0;
+
+	private final Runnable mWriteRunnable = new Runnable() {
+		@Override
+		public void run() {
+			int brightness = mPending.getAndSet(NONE);
+			if (brightness == NONE) {
+				return;
+			}
+			// Already there, e.g. A, B, A coalesced into a second A. Checked
+			// against the setting rather than our last write, as the user may
+			// have changed it since; reads come from the settings cache
+			if (Settings.System.getInt(mResolver,
+					Settings.System.SCREEN_BRIGHTNESS, NONE) == brightness) {
+				return;
+			}
+
+			mPendingEchoes.incrementAndGet();
+			long start = System.nanoTime();
+			Settings.System.putInt(mResolver,
+					Settings.System.SCREEN_BRIGHTNESS, brightness);
+			mMetrics.settingWriteTime.recordSince(start);
+			mLastWriteTime = SystemClock.uptimeMillis();
+			mMetrics.settingWrites.increment();
+
+			long traceStart = mTraceStart.getAndSet(NONE);
+			if (traceStart != NONE) {
+				long elapsedMs = mLastWriteTime - traceStart;
+				mMetrics.coldStartTime.record(elapsedMs * 1000);
+				Log.d(BrightnessWriter.class.getSimpleName(),
+						"first brightness write " + elapsedMs + "ms after start");
+			}
+		}
+	};
+
+	BrightnessWriter(ContentResolver resolver, long minIntervalMs,
+			Metrics metrics) {
+		mResolver = resolver;
+		mMinIntervalMs = minIntervalMs;
+		mMetrics = metrics;
+
+		HandlerThread thread = new HandlerThread(
+				BrightnessWriter.class.getSimpleName(),
+				Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		mHandler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Queue a brightness value; safe to call from any thread.
+	 */
+	void write(int brightness) {
+		mMetrics.brightnessRequests.increment();
+
+		if (mPending.getAndSet(brightness) == NONE) {
+			long delay = mLastWriteTime + mMinIntervalMs
+					- SystemClock.uptimeMillis();
+			mHandler.postDelayed(mWriteRunnable, Math.max(delay, 0));
+		}
+	}
+
+	/**
+	 * Queue a brightness as a fraction of full, rounded to the setting's 0
+	 * to 255.
+	 */
+	@Override
+	public void setBrightness(float brightness) {
+		write(toSetting(brightness));
+	}
+
+	static int toSetting(float brightness) {
+		return Math.round(Math.min(Math.max(brightness, 0.0f), 1.0f)
+				* Data.MAX_BRIGHTNESS);
+	}
+
+	/**
+	 * Report how long after startUptimeMs the next actual write happens,
+	 * e.g. to time a cold start.
+	 */
+	void traceNextWrite(long startUptimeMs) {
+		mTraceStart.set(startUptimeMs);
+	}
+
+	/**
+	 * Called for each brightness change notification; returns true if it
+	 * was caused by one of our own writes and can be ignored.
+	 */
+	boolean consumeEcho() {
+		int echoes;
+		do {
+			echoes = mPendingEchoes.get();
+			if (echoes == 0) {
+				return false;
+			}
+		} while (!mPendingEchoes.compareAndSet(echoes, echoes - 1));
+
+		return true;
+	}
+
+	/**
+	 * Forget outstanding echoes, e.g. when the observer was not registered
+	 * while they were delivered.
+	 */
+	void clearEchoes() {
+		mPendingEchoes.set(0);
+	}
+
+	long getRequestedWrites() {
+		return mMetrics.brightnessRequests.get();
+	}
+
+	long getActualWrites() {
+		return mMetrics.settingWrites.get();
+	}
+
+}
@@ -0,0 +1,106 @@
+package org.sgnexus.relativeautobright;
+
+import org.sgnexus.relativeautobright.Data.OnDataChangedListener;
+
+/**
+ * Data's listeners, kept per change code in arrays that are replaced
+ * wholesale on every (un)subscribe, so dispatch takes no lock and a
+ * listener is only woken for the changes it asked for.
+ */
+class ChangeListeners {
+	static private final OnDataChangedListener[] NO_LISTENERS = new OnDataChangedListener[0];
+
+	private final int mChangeCount;
+	// Every registered listener, guarded by this
+	private OnDataChangedListener[] mListeners = NO_LISTENERS;
+	private volatile OnDataChangedListener[][] mByChange;
+
+	ChangeListeners(int changeCount) {
+		mChangeCount = changeCount;
+		mByChange = emptyByChange(changeCount);
+	}
+
+	/**
+	 * Subscribe to the change codes whose bits are set in changeMask.
+	 */
+	synchronized void add(OnDataChangedListener listener, int changeMask) {
+		mListeners = withListener(mListeners, listener);
+
+		OnDataChangedListener[][] byChange = mByChange.clone();
+		for (int i = 0; i < mChangeCount; i++) {
+			if ((changeMask & (1 << i)) != 0) {
+				byChange[i] = withListener(byChange[i], listener);
+			}
+		}
+		mByChange = byChange;
+	}
+
+	synchronized void remove(OnDataChangedListener listener) {
+		mListeners = withoutListener(mListeners, listener);
+
+		OnDataChangedListener[][] byChange = mByChange.clone();
+		for (int i = 0; i < mChangeCount; i++) {
+			byChange[i] = withoutListener(byChange[i], listener);
+		}
+		mByChange = byChange;
+	}
+
+	synchronized void clear() {
+		mListeners = NO_LISTENERS;
+		mByChange = emptyByChange(mChangeCount);
+	}
+
+	synchronized int size() {
+		return mListeners.length;
+	}
+
+	void dispatch(int change) {
+		// Iterate over a snapshot so listeners may unregister during dispatch
+		OnDataChangedListener[] listeners = mByChange[change];
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].onDataChanged(change);
+		}
+	}
+
+	static private OnDataChangedListener[][] emptyByChange(int changeCount) {
+		OnDataChangedListener[][] byChange = new OnDataChangedListener[changeCount][];
+		for (int i = 0; i < changeCount; i++) {
+			byChange[i] = NO_LISTENERS;
+		}
+		return byChange;
+	}
+
+	static private OnDataChangedListener[] withListener(
+			OnDataChangedListener[] listeners, OnDataChangedListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				return listeners;
+			}
+		}
+
+		OnDataChangedListener[] newListeners = new OnDataChangedListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+		newListeners[listeners.length] = listener;
+		return newListeners;
+	}
+
+	static private OnDataChangedListener[] withoutListener(
+			OnDataChangedListener[] listeners, OnDataChangedListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				if (listeners.length == 1) {
+					return NO_LISTENERS;
+				}
+
+				OnDataChangedListener[] newListeners = new OnDataChangedListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, newListeners, 0, i);
+				System.arraycopy(listeners, i + 1, newListeners, i,
+						listeners.length - i - 1);
+				return newListeners;
+			}
+		}
+
+		return listeners;
+	}
+
+}
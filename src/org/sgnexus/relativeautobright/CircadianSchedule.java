@@ -0,0 +1,164 @@
+package org.sgnexus.relativeautobright;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Relative level offset by time of day, e.g. darker at night and brighter
+ * in the morning. The schedule is a few "HH:MM=offset" points joined by
+ * straight lines (wrapping round midnight), expanded into a table with one
+ * entry per minute so a lookup is an array read. The table is only rebuilt
+ * after the schedule changes, and the time zone is only looked up once a
+ * day.
+ */
+class CircadianSchedule {
+	static final int MINUTES_PER_DAY = 24 * 60;
+	static private final long MS_PER_MINUTE = 60 * 1000;
+	static private final long MS_PER_DAY = MINUTES_PER_DAY * MS_PER_MINUTE;
+
+	private final byte[] mTable = new byte[MINUTES_PER_DAY];
+	private String mConfig = "";
+	private boolean mEmpty = true;
+	private boolean mDirty = false;
+
+	// Null to follow the default zone
+	private final TimeZone mFixedZone;
+	private TimeZone mZone;
+	// Local midnight starting the current day, and the next one
+	private long mDayStart = 0;
+	private long mNextDayStart = 0;
+
+	CircadianSchedule() {
+		this(null);
+	}
+
+	/**
+	 * @param zone
+	 *            zone to read local time in, or null for the default
+	 */
+	CircadianSchedule(TimeZone zone) {
+		mFixedZone = zone;
+	}
+
+	/**
+	 * Set the schedule, e.g. "07:00=+10 12:00=0 22:00=-15 01:00=-30". The
+	 * table is rebuilt on the next lookup.
+	 */
+	void configure(String config) {
+		if (config == null) {
+			config = "";
+		}
+		if (!config.equals(mConfig)) {
+			mConfig = config;
+			mDirty = true;
+		}
+	}
+
+	/**
+	 * Offset in effect at the given wall clock time.
+	 */
+	int offsetAt(long timeMs) {
+		if (mDirty) {
+			rebuild();
+		}
+		if (mEmpty) {
+			return 0;
+		}
+
+		if (timeMs < mDayStart || timeMs >= mNextDayStart) {
+			updateDay(timeMs);
+		}
+		// The wall clock minute, not the time since midnight, which is an
+		// hour off after a DST change
+		long localMs = timeMs + mZone.getOffset(timeMs);
+		int minute = (int) ((localMs % MS_PER_DAY + MS_PER_DAY) % MS_PER_DAY
+				/ MS_PER_MINUTE);
+		return mTable[minute];
+	}
+
+	private void updateDay(long timeMs) {
+		mZone = mFixedZone != null ? mFixedZone : TimeZone.getDefault();
+		Calendar calendar = Calendar.getInstance(mZone);
+		calendar.setTimeInMillis(timeMs);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		mDayStart = calendar.getTimeInMillis();
+		calendar.add(Calendar.DAY_OF_MONTH, 1);
+		mNextDayStart = calendar.getTimeInMillis();
+	}
+
+	private void rebuild() {
+		mDirty = false;
+		Arrays.fill(mTable, (byte) 0);
+
+		// Parse into minute -> offset points, later points replacing earlier
+		// ones at the same minute
+		int[] offsets = new int[MINUTES_PER_DAY];
+		boolean[] isPoint = new boolean[MINUTES_PER_DAY];
+		int points = 0;
+		for (String entry : mConfig.trim().split("[\\s,;]+")) {
+			int split = entry.indexOf('=');
+			int colon = entry.indexOf(':');
+			if (split < 0 || colon < 0 || colon > split) {
+				continue;
+			}
+
+			try {
+				int hour = Integer.parseInt(entry.substring(0, colon));
+				int minute = Integer.parseInt(entry.substring(colon + 1, split));
+				String value = entry.substring(split + 1);
+				if (value.startsWith("+")) {
+					value = value.substring(1);
+				}
+				int offset = Integer.parseInt(value);
+				if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+					continue;
+				}
+
+				int at = hour * 60 + minute;
+				if (!isPoint[at]) {
+					points++;
+				}
+				isPoint[at] = true;
+				offsets[at] = Math.min(Math.max(offset,
+						-Data.MAX_RELATIVE_LEVEL), Data.MAX_RELATIVE_LEVEL);
+			} catch (NumberFormatException e) {
+				// Skip the entry
+			}
+		}
+
+		mEmpty = points == 0;
+		if (mEmpty) {
+			return;
+		}
+
+		// Walk the day from the first point, interpolating between each
+		// point and the next, wrapping round midnight
+		int first = 0;
+		while (!isPoint[first]) {
+			first++;
+		}
+		int from = first;
+		do {
+			int to = (from + 1) % MINUTES_PER_DAY;
+			while (!isPoint[to]) {
+				to = (to + 1) % MINUTES_PER_DAY;
+			}
+
+			int span = (to - from + MINUTES_PER_DAY) % MINUTES_PER_DAY;
+			if (span == 0) {
+				span = MINUTES_PER_DAY; // a single point
+			}
+			for (int i = 0; i < span; i++) {
+				mTable[(from + i) % MINUTES_PER_DAY] = (byte) Math
+						.round(offsets[from] + (float) (offsets[to] - offsets[from])
+								* i / span);
+			}
+			from = to;
+		} while (from != first);
+	}
+
+}
@@ -0,0 +1,288 @@
+package org.sgnexus.relativeautobright;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Grid search over DefaultStrategy's parameters against labelled lux traces,
+ * minimising the mean absolute brightness error. Off-device tool:
+ *
+ * <pre>
+ * java -cp bin/classes org.sgnexus.relativeautobright.CurveOptimizer \
+ *     -level 50 -labels 3 -levels 2 trace.csv... > curve.txt
+ * </pre>
+ *
+ * The curve is fitted at one relative level, so samples recorded at other
+ * levels are left out; without -level, the level most samples were
+ * recorded at is used. Samples are binned once into label histograms between the candidate lux
+ * thresholds, so each grid point costs O(1) no matter how long the traces
+ * are. Rows of the grid are searched in parallel.
+ */
+class CurveOptimizer {
+	static final int LUX_STEPS = 96; // log spaced, 1 to 100k lux
+	static final int DARK_LEVEL_STEP = 5;
+	static private final int LABELS = Data.MAX_BRIGHTNESS + 1;
+
+	private final int mRelativeLevel;
+	private final float[] mLuxSteps = new float[LUX_STEPS];
+
+	// Per lux interval, cumulative over intervals and labels:
+	// mCount[i][v] = samples in intervals < i with label < v
+	private final long[][] mCount = new long[LUX_STEPS + 2][LABELS + 1];
+	private final long[][] mSum = new long[LUX_STEPS + 2][LABELS + 1];
+	private long mSamples = 0;
+	private long mOtherLevelSamples = 0;
+
+	static class Best {
+		DefaultStrategy strategy;
+		long error = Long.MAX_VALUE;
+		long points;
+
+		float meanError(long samples) {
+			return samples == 0 ? 0 : (float) error / samples;
+		}
+	}
+
+	CurveOptimizer(List<LuxTrace> traces, int relativeLevel) {
+		mRelativeLevel = relativeLevel;
+		for (int i = 0; i < LUX_STEPS; i++) {
+			mLuxSteps[i] = (float) Math.pow(10, 5.0 * i / (LUX_STEPS - 1));
+		}
+
+		long[][] histogram = new long[LUX_STEPS + 1][LABELS];
+		for (LuxTrace trace : traces) {
+			if (trace.label == null) {
+				continue;
+			}
+			for (int i = 0; i < trace.size(); i++) {
+				if (trace.level != null && trace.level[i] != relativeLevel) {
+					mOtherLevelSamples++;
+					continue;
+				}
+				int label = Math.min(Math.max(trace.label[i], 0), LABELS - 1);
+				histogram[interval(trace.lux[i])][label]++;
+				mSamples++;
+			}
+		}
+
+		for (int i = 0; i <= LUX_STEPS; i++) {
+			for (int v = 0; v < LABELS; v++) {
+				long count = histogram[i][v];
+				mCount[i + 1][v + 1] = mCount[i + 1][v] + mCount[i][v + 1]
+						- mCount[i][v] + count;
+				mSum[i + 1][v + 1] = mSum[i + 1][v] + mSum[i][v + 1]
+						- mSum[i][v] + count * v;
+			}
+		}
+	}
+
+	/**
+	 * Number of lux steps at or below lux; samples with lux < step a fall in
+	 * intervals 0..a.
+	 */
+	private int interval(float lux) {
+		int i = 0;
+		while (i < LUX_STEPS && mLuxSteps[i] <= lux) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Total |label - c| over samples in lux intervals [from, to).
+	 */
+	private long error(int from, int to, int c) {
+		if (from >= to) {
+			return 0;
+		}
+		c = Math.min(Math.max(c, 0), LABELS - 1);
+
+		long below = mCount[to][c] - mCount[from][c];
+		long belowSum = mSum[to][c] - mSum[from][c];
+		long all = mCount[to][LABELS] - mCount[from][LABELS];
+		long allSum = mSum[to][LABELS] - mSum[from][LABELS];
+
+		return (c * below - belowSum) + (allSum - belowSum - c * (all - below));
+	}
+
+	long samples() {
+		return mSamples;
+	}
+
+	/**
+	 * Labelled samples left out for being recorded at another level.
+	 */
+	long otherLevelSamples() {
+		return mOtherLevelSamples;
+	}
+
+	/**
+	 * The relative level most labelled samples were recorded at, or -1 if
+	 * the traces don't record levels.
+	 */
+	static int mostCommonLevel(List<LuxTrace> traces) {
+		long[] counts = new long[Data.MAX_RELATIVE_LEVEL + 1];
+		for (LuxTrace trace : traces) {
+			if (trace.label == null || trace.level == null) {
+				continue;
+			}
+			for (int i = 0; i < trace.size(); i++) {
+				int level = trace.level[i];
+				if (level >= 0 && level < counts.length) {
+					counts[level]++;
+				}
+			}
+		}
+
+		int best = -1;
+		for (int level = 0; level < counts.length; level++) {
+			if (counts[level] > 0 && (best < 0 || counts[level] > counts[best])) {
+				best = level;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Try every darkLux < maxLux pair from the lux steps, every dark level
+	 * in steps of DARK_LEVEL_STEP and every offset.
+	 */
+	Best search(int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Best>> rows = new ArrayList<Future<Best>>();
+			for (int a = 0; a < LUX_STEPS; a++) {
+				final int darkIndex = a;
+				rows.add(executor.submit(new Callable<Best>() {
+					@Override
+					public Best call() {
+						return searchRow(darkIndex);
+					}
+				}));
+			}
+
+			Best best = new Best();
+			for (Future<Best> row : rows) {
+				Best candidate = row.get();
+				best.points += candidate.points;
+				if (candidate.error < best.error) {
+					best.error = candidate.error;
+					best.strategy = candidate.strategy;
+				}
+			}
+			return best;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private Best searchRow(int a) {
+		Best best = new Best();
+		int bestB = 0, bestDarkLevel = 0, bestOffset = 0;
+		int level = mRelativeLevel;
+
+		for (int b = a + 1; b < LUX_STEPS; b++) {
+			long bright = error(b + 1, LUX_STEPS + 1, Data.MAX_BRIGHTNESS);
+
+			for (int darkLevel = 0; darkLevel <= Data.MAX_RELATIVE_LEVEL; darkLevel += DARK_LEVEL_STEP) {
+				long dark = error(0, a + 1, level < darkLevel ? 0 : level / 2);
+
+				for (int offset = 0; offset < LABELS; offset++) {
+					long mid = error(a + 1, b + 1, offset + level / 2);
+					long total = dark + mid + bright;
+					best.points++;
+
+					if (total < best.error) {
+						best.error = total;
+						bestB = b;
+						bestDarkLevel = darkLevel;
+						bestOffset = offset;
+					}
+				}
+			}
+		}
+
+		if (best.error != Long.MAX_VALUE) {
+			best.strategy = new DefaultStrategy(mLuxSteps[a], mLuxSteps[bestB],
+					bestDarkLevel, bestOffset);
+		}
+		return best;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int level = -1;
+		int labelColumn = 3; // brightness column of exported traces
+		int levelColumn = 2; // relative level column of exported traces
+		String out = null;
+		List<LuxTrace> traces = new ArrayList<LuxTrace>();
+
+		for (int i = 0; i < args.length; i++) {
+			if ("-level".equals(args[i])) {
+				level = Integer.parseInt(args[++i]);
+			} else if ("-labels".equals(args[i])) {
+				labelColumn = Integer.parseInt(args[++i]);
+			} else if ("-levels".equals(args[i])) {
+				levelColumn = Integer.parseInt(args[++i]);
+			} else if ("-out".equals(args[i])) {
+				out = args[++i];
+			} else {
+				traces.add(TraceReplayer.readTrace(new File(args[i]),
+						labelColumn, -1, levelColumn));
+			}
+		}
+
+		if (traces.isEmpty()) {
+			System.err.println("usage: CurveOptimizer [-level n] "
+					+ "[-labels column] [-levels column|-1] [-out file] "
+					+ "trace.csv|trace-N.bin...");
+			System.exit(1);
+		}
+
+		if (level < 0) {
+			level = mostCommonLevel(traces);
+			if (level < 0) {
+				level = 50;
+			}
+			System.err.println("fitting at level " + level);
+		}
+
+		long start = System.nanoTime();
+		CurveOptimizer optimizer = new CurveOptimizer(traces, level);
+		Best best = optimizer.search(Runtime.getRuntime()
+				.availableProcessors());
+		long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+		if (best.strategy == null) {
+			System.err.println("no labelled samples");
+			System.exit(1);
+		}
+
+		System.err.println(best.points + " points over " + optimizer.samples()
+				+ " samples in " + elapsedMs + "ms, mean error "
+				+ best.meanError(optimizer.samples()) + ", "
+				+ optimizer.otherLevelSamples() + " samples at other levels");
+		System.out.println(best.strategy.toConfig());
+		if (out != null) {
+			writeConfig(new File(out), best.strategy.toConfig());
+		}
+	}
+
+	static private void writeConfig(File file, String config)
+			throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(config);
+			writer.write('\n');
+		} finally {
+			writer.close();
+		}
+	}
+
+}
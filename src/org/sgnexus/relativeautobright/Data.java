@@ -1,7 +1,8 @@
 package org.sgnexus.relativeautobright;
 
-import java.util.Observable;
-import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -9,17 +10,28 @@ import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.util.Log;
 
-class Data extends Observable implements OnSharedPreferenceChangeListener {
+class Data implements OnSharedPreferenceChangeListener {
 	final private String mTag = this.getClass().getSimpleName();
 	static private Data sInstance;
+	// Preference and settings reads, kept off the caller's thread
+	static private final Executor LOADER = Executors.newSingleThreadExecutor();
+	final private CountDownLatch mLoaded = new CountDownLatch(1);
 	private SharedPreferences mPrefs;
 	private Context mContext;
 	private SettingsContentObserver mSettingsObserver;
+	private BrightnessWriter mBrightnessWriter;
+	// One of our windows while it is in front, see WindowBrightnessSink
+	private volatile BrightnessSink mWindowSink;
+	private TraceRecorder mTraceRecorder;
+	final private Metrics mMetrics = new Metrics();
 	private boolean isListening = false;
+	final private ChangeListeners mListeners = new ChangeListeners(CHANGE_COUNT);
 
 	final static String SERVICE_ENABLED = "serviceEnabled";
 	final static String RELATIVE_LEVEL = "relativeLevel";
@@ -27,6 +39,48 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 	final static String BRIGHTNESS = "brightness";
 	final static String BRIGHTNESS_MODE = "brightnessMode";
 	final static String SENSE_INTERVAL = "senseIntervalMs";
+	final static String SENSE_MODE = "senseMode";
+	final static String LUX_MEDIAN_WINDOW = "luxMedianWindow";
+	final static String LUX_SMOOTHING = "luxSmoothing";
+	final static String LUX_HYSTERESIS = "luxHysteresis";
+	final static String RAMP_DURATION = "rampDurationMs";
+	final static String MAX_LUX = "maxLux";
+	final static String CURVE_CONFIG = "curveConfig";
+	final static String APP_PROFILES = "appProfiles";
+	final static String SCHEDULE = "schedule";
+	final static String STRATEGY = "strategy";
+	final static String SHADOW_STRATEGY = "shadowStrategy";
+	final static String WAKE_UP_BUDGET = "wakeUpBudget";
+	// Which upgradePrefs() steps have been applied
+	final static String PREFS_VERSION = "prefsVersion";
+	static private final int CURRENT_PREFS_VERSION = 1;
+
+	// Values of the SENSE_MODE preference
+	final static String SENSE_MODE_PAUSE = "pause";
+	final static String SENSE_MODE_BATCH = "batch";
+
+	// Values of the STRATEGY and SHADOW_STRATEGY preferences
+	final static String STRATEGY_CURVE = "curve";
+	final static String STRATEGY_TABLE = "table";
+	final static String STRATEGY_LEARNING = "learning";
+
+	// Change codes passed to OnDataChangedListener
+	final static int CHANGE_SERVICE_ENABLED = 0;
+	final static int CHANGE_RELATIVE_LEVEL = 1;
+	final static int CHANGE_LUX = 2;
+	final static int CHANGE_BRIGHTNESS = 3;
+	final static int CHANGE_BRIGHTNESS_MODE = 4;
+	final static int CHANGE_SENSE_INTERVAL = 5;
+	final static int CHANGE_SENSE_MODE = 6;
+	final static int CHANGE_LUX_FILTER = 7;
+	final static int CHANGE_RAMP_DURATION = 8;
+	final static int CHANGE_CURVE = 9;
+	final static int CHANGE_APP_PROFILES = 10;
+	final static int CHANGE_SCHEDULE = 11;
+	final static int CHANGE_STRATEGY = 12;
+	final static int CHANGE_WAKE_UP_BUDGET = 13;
+	final static int CHANGE_COUNT = 14;
+	final static int ALL_CHANGES = (1 << CHANGE_COUNT) - 1;
 
 	static final int MIN_BRIGHTNESS = 0;
 	static final int MAX_BRIGHTNESS = 255;
@@ -34,26 +88,79 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 	static final int MAX_RELATIVE_LEVEL = 100;
 
 	// todo: put these in advanced preferences
-	final static int LUX_DIFF_THRESHOLD = 1;
 	final static int INCREASE_LEVEL = 5;
+	final static int MIN_BRIGHTNESS_WRITE_INTERVAL = 100;
+	final static int RAMP_STEPS_PER_SECOND = 1000 / MIN_BRIGHTNESS_WRITE_INTERVAL;
+	// How often ramp steps shown in a window also go to the setting
+	final static int BRIGHTNESS_RECONCILE_INTERVAL = 1000;
 	final static int DEFAULT_SENSE_INTERVAL = 2000;
-
-	private boolean mServiceEnabled;
-	private int mRelativeLevel;
-	private float mLux = -1.0f;
-	private int mBrightness;
-	private int mBrightnessMode;
-	private int mSenseInterval;
+	// How often the foreground app is checked while app profiles are set
+	final static int FOREGROUND_APP_INTERVAL = 10000;
+	final static int MAX_SENSE_BACKOFF = 8;
+
+	// Written on the main thread or the service's sensor thread and read on
+	// the other, hence volatile
+	private volatile boolean mServiceEnabled;
+	private volatile int mRelativeLevel;
+	// Added to mRelativeLevel for the foreground app, see AppProfiles
+	private volatile int mLevelOffset = 0;
+	private volatile float mLux = -1.0f;
+	private volatile int mBrightness;
+	private volatile int mBrightnessMode;
+	private volatile int mSenseInterval;
+	private volatile boolean mBatchSensing;
+	private volatile int mLuxMedianWindow;
+	private volatile int mLuxSmoothing;
+	private volatile int mLuxHysteresis;
+	private volatile int mRampDuration;
+	private volatile int mMaxLux;
+	// Defaults until load(), as prefs can change before it gets to them
+	private volatile String mCurveConfig = "";
+	private volatile String mAppProfilesConfig = "";
+	private volatile AppProfiles mAppProfiles = AppProfiles.EMPTY;
+	private volatile String mSchedule = "";
+	private volatile String mStrategy = STRATEGY_LEARNING;
+	private volatile String mShadowStrategy = StrategyRegistry.NONE;
+	private volatile int mWakeUpBudget;
+
+	// Lux, brightness and level as one consistent set, for the UI
+	final private StatusSnapshot mStatus = new StatusSnapshot();
+
+	interface OnDataChangedListener {
+		void onDataChanged(int change);
+	}
 
 	private Data(Context context) {
 		mContext = context;
 		mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+		mBrightnessWriter = new BrightnessWriter(context.getContentResolver(),
+				MIN_BRIGHTNESS_WRITE_INTERVAL, mMetrics);
+		mTraceRecorder = new TraceRecorder(context.getFilesDir());
+
+		// Set initial data values in the background; until then getters
+		// return defaults
+		LOADER.execute(new Runnable() {
+			@Override
+			public void run() {
+				load();
+			}
+		});
+	}
 
-		// Set initial data values
-		loadValuesFromPrefs();
+	/**
+	 * Not connected to preferences or settings: nothing is loaded, observed
+	 * or written, but setters, the status snapshot and change dispatch work
+	 * as usual. Lets DispatchBenchmark run them on a desktop JVM.
+	 */
+	Data() {
+		mLoaded.countDown();
 	}
 
-	static Data getInstance(Context context) {
+	/**
+	 * Cheap to call from any thread; values are loaded in the background,
+	 * see awaitLoaded().
+	 */
+	static synchronized Data getInstance(Context context) {
 		if (sInstance == null) {
 			sInstance = new Data(context);
 		}
@@ -61,15 +168,110 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 		return sInstance;
 	}
 
-	void loadValuesFromPrefs() {
-		mServiceEnabled = mPrefs.getBoolean(SERVICE_ENABLED, false);
-		mRelativeLevel = mPrefs.getInt(RELATIVE_LEVEL, 50);
+	private void load() {
+		long start = System.nanoTime();
+		try {
+			Trace.beginSection("Data.load");
+			try {
+				upgradePrefs();
+				// Registered first so no change can slip in between
+				mPrefs.registerOnSharedPreferenceChangeListener(this);
+				loadValuesFromPrefs();
+				loadSystemSettings();
+			} finally {
+				Trace.endSection();
+			}
+			mMetrics.loadTime.recordSince(start);
+
+			// Let anything that showed defaults catch up, before anyone
+			// waiting in awaitLoaded() subscribes; listeners only sync state
+			// on these, the service is never started or stopped by them
+			notifyListeners(CHANGE_SERVICE_ENABLED);
+			notifyListeners(CHANGE_RELATIVE_LEVEL);
+			notifyListeners(CHANGE_BRIGHTNESS);
+		} finally {
+			// Never leave awaitLoaded() blocked
+			mLoaded.countDown();
+		}
+	}
+
+	boolean isLoaded() {
+		return mLoaded.getCount() == 0;
+	}
+
+	/**
+	 * Block until the initial values are loaded; not for the main thread.
+	 */
+	void awaitLoaded() {
+		try {
+			mLoaded.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void loadSystemSettings() {
 		mBrightness = Settings.System.getInt(mContext.getContentResolver(),
 				Settings.System.SCREEN_BRIGHTNESS, 0);
 		mBrightnessMode = Settings.System.getInt(mContext.getContentResolver(),
 				Settings.System.SCREEN_BRIGHTNESS_MODE, 0);
+		publishStatus();
+	}
+
+	/**
+	 * Bring preferences stored by older versions up to date.
+	 */
+	private void upgradePrefs() {
+		int version = mPrefs.getInt(PREFS_VERSION, 0);
+		if (version >= CURRENT_PREFS_VERSION) {
+			return;
+		}
+
+		SharedPreferences.Editor editor = mPrefs.edit();
+		if (version < 1 && "500".equals(mPrefs.getString(MAX_LUX, null))) {
+			// The old default, stored by setDefaultValues() back when maxLux
+			// was not read; the curve has always ended at 1000
+			editor.putString(MAX_LUX, "1000");
+		}
+		editor.putInt(PREFS_VERSION, CURRENT_PREFS_VERSION).apply();
+	}
+
+	private void loadValuesFromPrefs() {
+		mServiceEnabled = mPrefs.getBoolean(SERVICE_ENABLED, false);
+		mRelativeLevel = mPrefs.getInt(RELATIVE_LEVEL, 50);
 		mSenseInterval = Integer.parseInt(mPrefs.getString(SENSE_INTERVAL,
 				"5000"));
+		mBatchSensing = SENSE_MODE_BATCH.equals(mPrefs.getString(SENSE_MODE,
+				SENSE_MODE_PAUSE));
+		mLuxMedianWindow = Integer.parseInt(mPrefs.getString(
+				LUX_MEDIAN_WINDOW, "3"));
+		mLuxSmoothing = Integer.parseInt(mPrefs.getString(LUX_SMOOTHING, "50"));
+		mLuxHysteresis = Integer.parseInt(mPrefs.getString(LUX_HYSTERESIS,
+				"10"));
+		mRampDuration = Integer.parseInt(mPrefs
+				.getString(RAMP_DURATION, "500"));
+		mMaxLux = Integer.parseInt(mPrefs.getString(MAX_LUX, "1000"));
+		mCurveConfig = mPrefs.getString(CURVE_CONFIG, "");
+		mAppProfilesConfig = mPrefs.getString(APP_PROFILES, "");
+		mAppProfiles = AppProfiles.parse(mAppProfilesConfig);
+		mSchedule = mPrefs.getString(SCHEDULE, "");
+		mStrategy = mPrefs.getString(STRATEGY, STRATEGY_LEARNING);
+		mShadowStrategy = mPrefs.getString(SHADOW_STRATEGY,
+				StrategyRegistry.NONE);
+		mWakeUpBudget = Integer.parseInt(mPrefs.getString(WAKE_UP_BUDGET, "0"));
+		publishStatus();
+	}
+
+	private void publishStatus() {
+		mStatus.publish(mLux, mBrightness, getRelativeLevel());
+	}
+
+	/**
+	 * Consistent lux, brightness and relative level; safe to read from any
+	 * thread without blocking the one that updates them.
+	 */
+	StatusSnapshot getStatus() {
+		return mStatus;
 	}
 
 	void setRelativeLevel(int level) {
@@ -82,17 +284,45 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 
 		if (level != mRelativeLevel) {
 			mRelativeLevel = level;
+			publishStatus();
 			if (saveInSharedPrefs) {
-				mPrefs.edit().putInt(RELATIVE_LEVEL, level).commit();
+				mPrefs.edit().putInt(RELATIVE_LEVEL, level).apply();
 			}
-			notifyObservers(RELATIVE_LEVEL);
+			notifyListeners(CHANGE_RELATIVE_LEVEL);
 		}
 	}
 
+	/**
+	 * The level in effect: the user's level plus the foreground app's offset.
+	 */
 	int getRelativeLevel() {
+		return Math.min(Math.max(mRelativeLevel + mLevelOffset,
+				MIN_RELATIVE_LEVEL), MAX_RELATIVE_LEVEL);
+	}
+
+	/**
+	 * The level the user set, without any app offset.
+	 */
+	int getBaseRelativeLevel() {
 		return mRelativeLevel;
 	}
 
+	/**
+	 * Set the foreground app's offset to the relative level; reported as a
+	 * CHANGE_RELATIVE_LEVEL.
+	 */
+	void setLevelOffset(int offset) {
+		if (offset != mLevelOffset) {
+			mLevelOffset = offset;
+			publishStatus();
+			notifyListeners(CHANGE_RELATIVE_LEVEL);
+		}
+	}
+
+	int getLevelOffset() {
+		return mLevelOffset;
+	}
+
 	void setBrightnessMode(int mode) {
 		int prevMode = getBrightnessMode();
 
@@ -100,7 +330,7 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 			Settings.System.putInt(mContext.getContentResolver(),
 					Settings.System.SCREEN_BRIGHTNESS_MODE, mode);
 			mBrightnessMode = mode;
-			notifyObservers(BRIGHTNESS_MODE);
+			notifyListeners(CHANGE_BRIGHTNESS_MODE);
 		}
 
 	}
@@ -110,9 +340,16 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 	}
 
 	void setServiceEnabled(boolean enabled) {
+		setServiceEnabled(enabled, false);
+	}
+
+	void setServiceEnabled(boolean enabled, boolean saveInSharedPrefs) {
 		if (enabled != mServiceEnabled) {
 			mServiceEnabled = enabled;
-			notifyObservers(SERVICE_ENABLED);
+			if (saveInSharedPrefs) {
+				mPrefs.edit().putBoolean(SERVICE_ENABLED, enabled).apply();
+			}
+			notifyListeners(CHANGE_SERVICE_ENABLED);
 		}
 	}
 
@@ -120,27 +357,64 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 		return mServiceEnabled;
 	}
 
-	void setBrightness(int brightness) {
+	/**
+	 * Returns true if the setting is being written, false if it already
+	 * held this value.
+	 */
+	boolean setBrightness(int brightness) {
+		long start = System.nanoTime();
 		brightness = Math.min(Math.max(brightness, MIN_BRIGHTNESS),
 				MAX_BRIGHTNESS);
 
-		if (mBrightness != brightness) {
+		boolean changed = mBrightness != brightness;
+		if (changed) {
 			mBrightness = brightness;
-			Settings.System.putInt(mContext.getContentResolver(),
-					Settings.System.SCREEN_BRIGHTNESS, brightness);
-			notifyObservers(BRIGHTNESS);
+			publishStatus();
+			mBrightnessWriter.write(brightness);
+			BrightnessSink window = mWindowSink;
+			if (window != null) {
+				window.setBrightness((float) brightness / MAX_BRIGHTNESS);
+			}
+			notifyListeners(CHANGE_BRIGHTNESS);
 		}
-
+		mMetrics.setBrightnessTime.recordSince(start);
+		return changed;
 	}
 
 	int getBrightness() {
 		return mBrightness;
 	}
 
+	BrightnessWriter getBrightnessWriter() {
+		return mBrightnessWriter;
+	}
+
+	/**
+	 * Also show brightness in this sink, or stop if null. Ramp steps go only
+	 * there, with the setting catching up every
+	 * BRIGHTNESS_RECONCILE_INTERVAL.
+	 */
+	void setWindowSink(BrightnessSink sink) {
+		mWindowSink = sink;
+	}
+
+	BrightnessSink getWindowSink() {
+		return mWindowSink;
+	}
+
+	TraceRecorder getTraceRecorder() {
+		return mTraceRecorder;
+	}
+
+	Metrics getMetrics() {
+		return mMetrics;
+	}
+
 	void setLux(float lux) {
 		if (Float.compare(mLux, lux) != 0) {
 			mLux = lux;
-			notifyObservers(LUX);
+			publishStatus();
+			notifyListeners(CHANGE_LUX);
 		}
 	}
 
@@ -151,7 +425,7 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 	void setSenseInterval(int intervalMs) {
 		if (mSenseInterval != intervalMs) {
 			mSenseInterval = intervalMs;
-			notifyObservers(SENSE_INTERVAL);
+			notifyListeners(CHANGE_SENSE_INTERVAL);
 		}
 	}
 
@@ -159,9 +433,137 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 		return mSenseInterval;
 	}
 
-	private void notifyObservers(String key) {
-		setChanged();
-		super.notifyObservers(key);
+	void setBatchSensing(boolean batch) {
+		if (mBatchSensing != batch) {
+			mBatchSensing = batch;
+			notifyListeners(CHANGE_SENSE_MODE);
+		}
+	}
+
+	boolean getBatchSensing() {
+		return mBatchSensing;
+	}
+
+	void setLuxFilter(int medianWindow, int smoothingPercent,
+			int hysteresisPercent) {
+		if (mLuxMedianWindow != medianWindow
+				|| mLuxSmoothing != smoothingPercent
+				|| mLuxHysteresis != hysteresisPercent) {
+			mLuxMedianWindow = medianWindow;
+			mLuxSmoothing = smoothingPercent;
+			mLuxHysteresis = hysteresisPercent;
+			notifyListeners(CHANGE_LUX_FILTER);
+		}
+	}
+
+	int getLuxMedianWindow() {
+		return mLuxMedianWindow;
+	}
+
+	int getLuxSmoothing() {
+		return mLuxSmoothing;
+	}
+
+	int getLuxHysteresis() {
+		return mLuxHysteresis;
+	}
+
+	void setRampDuration(int durationMs) {
+		if (mRampDuration != durationMs) {
+			mRampDuration = durationMs;
+			notifyListeners(CHANGE_RAMP_DURATION);
+		}
+	}
+
+	int getRampDuration() {
+		return mRampDuration;
+	}
+
+	void setCurve(int maxLux, String curveConfig) {
+		if (mMaxLux != maxLux || !mCurveConfig.equals(curveConfig)) {
+			mMaxLux = maxLux;
+			mCurveConfig = curveConfig;
+			notifyListeners(CHANGE_CURVE);
+		}
+	}
+
+	void setAppProfiles(String config) {
+		if (!mAppProfilesConfig.equals(config)) {
+			mAppProfilesConfig = config;
+			mAppProfiles = AppProfiles.parse(config);
+			notifyListeners(CHANGE_APP_PROFILES);
+		}
+	}
+
+	AppProfiles getAppProfiles() {
+		return mAppProfiles;
+	}
+
+	void setSchedule(String schedule) {
+		if (!mSchedule.equals(schedule)) {
+			mSchedule = schedule;
+			notifyListeners(CHANGE_SCHEDULE);
+		}
+	}
+
+	/**
+	 * Time of day offsets, see CircadianSchedule.configure().
+	 */
+	String getSchedule() {
+		return mSchedule;
+	}
+
+	void setStrategy(String strategy, String shadowStrategy) {
+		if (!mStrategy.equals(strategy)
+				|| !mShadowStrategy.equals(shadowStrategy)) {
+			mStrategy = strategy;
+			mShadowStrategy = shadowStrategy;
+			notifyListeners(CHANGE_STRATEGY);
+		}
+	}
+
+	String getStrategy() {
+		return mStrategy;
+	}
+
+	/**
+	 * Strategy evaluated alongside, but not applied, or
+	 * StrategyRegistry.NONE.
+	 */
+	String getShadowStrategy() {
+		return mShadowStrategy;
+	}
+
+	void setWakeUpBudget(int wakeUpsPerHour) {
+		if (mWakeUpBudget != wakeUpsPerHour) {
+			mWakeUpBudget = wakeUpsPerHour;
+			notifyListeners(CHANGE_WAKE_UP_BUDGET);
+		}
+	}
+
+	/**
+	 * Wake-ups per hour the service should stay under, or 0 for no limit.
+	 */
+	int getWakeUpBudget() {
+		return mWakeUpBudget;
+	}
+
+	int getMaxLux() {
+		return mMaxLux;
+	}
+
+	/**
+	 * Extra DefaultStrategy parameters, see DefaultStrategy.configure().
+	 */
+	String getCurveConfig() {
+		return mCurveConfig;
+	}
+
+	private void notifyListeners(int change) {
+		long start = System.nanoTime();
+		mListeners.dispatch(change);
+		mMetrics.dispatches.increment();
+		mMetrics.dispatchTime.recordSince(start);
 	}
 
 	@Override
@@ -173,26 +575,55 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 			setServiceEnabled(prefs.getBoolean(key, false));
 		} else if (key.equals(SENSE_INTERVAL)) {
 			setSenseInterval(Integer.parseInt(prefs.getString(key, "5000")));
+		} else if (key.equals(SENSE_MODE)) {
+			setBatchSensing(SENSE_MODE_BATCH.equals(prefs.getString(key,
+					SENSE_MODE_PAUSE)));
+		} else if (key.equals(LUX_MEDIAN_WINDOW) || key.equals(LUX_SMOOTHING)
+				|| key.equals(LUX_HYSTERESIS)) {
+			setLuxFilter(
+					Integer.parseInt(prefs.getString(LUX_MEDIAN_WINDOW, "3")),
+					Integer.parseInt(prefs.getString(LUX_SMOOTHING, "50")),
+					Integer.parseInt(prefs.getString(LUX_HYSTERESIS, "10")));
+		} else if (key.equals(RAMP_DURATION)) {
+			setRampDuration(Integer.parseInt(prefs.getString(key, "500")));
+		} else if (key.equals(MAX_LUX) || key.equals(CURVE_CONFIG)) {
+			setCurve(Integer.parseInt(prefs.getString(MAX_LUX, "1000")),
+					prefs.getString(CURVE_CONFIG, ""));
+		} else if (key.equals(APP_PROFILES)) {
+			setAppProfiles(prefs.getString(key, ""));
+		} else if (key.equals(SCHEDULE)) {
+			setSchedule(prefs.getString(key, ""));
+		} else if (key.equals(STRATEGY) || key.equals(SHADOW_STRATEGY)) {
+			setStrategy(prefs.getString(STRATEGY, STRATEGY_LEARNING),
+					prefs.getString(SHADOW_STRATEGY, StrategyRegistry.NONE));
+		} else if (key.equals(WAKE_UP_BUDGET)) {
+			setWakeUpBudget(Integer.parseInt(prefs.getString(key, "0")));
 		}
 	}
 
 	private class SettingsContentObserver extends ContentObserver {
 
 		public SettingsContentObserver() {
-			super(new Handler());
+			// Not the caller's looper, which may be a thread that quits
+			super(new Handler(Looper.getMainLooper()));
 		}
 
 		@Override
 		public void onChange(boolean selfChange, Uri uri) {
 			if ("content://settings/system/screen_brightness".equals(uri
 					.toString())) {
+				if (mBrightnessWriter.consumeEcho()) {
+					return;
+				}
+
 				int brightness = Settings.System.getInt(
 						mContext.getContentResolver(),
 						Settings.System.SCREEN_BRIGHTNESS, 0);
 
 				if (brightness != mBrightness) {
 					mBrightness = brightness;
-					notifyObservers(BRIGHTNESS);
+					publishStatus();
+					notifyListeners(CHANGE_BRIGHTNESS);
 				}
 			} else if ("content://settings/system/screen_brightness_mode"
 					.equals(uri.toString())) {
@@ -202,29 +633,51 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 
 				if (brightnessMode != mBrightnessMode) {
 					mBrightnessMode = brightnessMode;
-					notifyObservers(BRIGHTNESS_MODE);
+					notifyListeners(CHANGE_BRIGHTNESS_MODE);
 				}
 			}
 		}
 
 	}
 
-	@Override
-	public void addObserver(Observer observer) {
-		Log.d(mTag, "adding observer: #" + countObservers());
+	static int changeMask(int change) {
+		return 1 << change;
+	}
+
+	synchronized void addListener(OnDataChangedListener listener) {
+		addListener(listener, ALL_CHANGES);
+	}
+
+	/**
+	 * Subscribe to the changes set in changeMask (see changeMask()); a
+	 * listener is only ever called for those change codes.
+	 */
+	synchronized void addListener(OnDataChangedListener listener,
+			int changeMask) {
+		Log.d(mTag, "adding listener: #" + mListeners.size());
 		if (!isListening) {
 			startListening();
 		}
-		super.addObserver(observer);
+
+		mListeners.add(listener, changeMask);
 	}
 
 	private void startListening() {
 		// Setup listeners
-		if (!isListening) {
+		if (!isListening && mContext != null) {
 			Log.d(mTag, "setup data listeners");
 			isListening = true;
-			loadValuesFromPrefs();
-			mPrefs.registerOnSharedPreferenceChangeListener(this);
+			mBrightnessWriter.clearEchoes();
+			if (isLoaded()) {
+				// Brightness may have changed while nothing was observing;
+				// preferences are observed all along
+				LOADER.execute(new Runnable() {
+					@Override
+					public void run() {
+						loadSystemSettings();
+					}
+				});
+			}
 			mSettingsObserver = new SettingsContentObserver();
 			mContext.getContentResolver()
 					.registerContentObserver(
@@ -241,18 +694,15 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 		}
 	}
 
-	@Override
-	public synchronized void deleteObserver(Observer observer) {
-		super.deleteObserver(observer);
-
-		if (countObservers() == 0) {
+	synchronized void removeListener(OnDataChangedListener listener) {
+		mListeners.remove(listener);
+		if (mListeners.size() == 0) {
 			stopListening();
 		}
 	}
 
-	@Override
-	public synchronized void deleteObservers() {
-		super.deleteObservers();
+	synchronized void removeListeners() {
+		mListeners.clear();
 		stopListening();
 	}
 
@@ -261,7 +711,6 @@ class Data extends Observable implements OnSharedPreferenceChangeListener {
 		if (isListening) {
 			Log.d(mTag, "removing data listeners");
 			isListening = false;
-			mPrefs.unregisterOnSharedPreferenceChangeListener(this);
 			mContext.getContentResolver().unregisterContentObserver(
 					mSettingsObserver);
 		}
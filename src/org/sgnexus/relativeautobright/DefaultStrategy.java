@@ -3,29 +3,98 @@ package org.sgnexus.relativeautobright;
 class DefaultStrategy extends AutoBrightnessStrategy {
 
 	// static private int THRESHOLD = 2;
-	static private int MAX_LUX = 1000;
+	static final float DEFAULT_DARK_LUX = 10;
+	static final float DEFAULT_MAX_LUX = 1000;
+	static final int DEFAULT_DARK_LEVEL = 20;
+	static final int DEFAULT_OFFSET = 70;
+
+	private float mDarkLux = DEFAULT_DARK_LUX;
+	private float mMaxLux = DEFAULT_MAX_LUX;
+	private int mDarkLevel = DEFAULT_DARK_LEVEL;
+	private int mOffset = DEFAULT_OFFSET;
 
 	DefaultStrategy() {
 	}
 
+	DefaultStrategy(float darkLux, float maxLux, int darkLevel, int offset) {
+		mDarkLux = darkLux;
+		mMaxLux = maxLux;
+		mDarkLevel = darkLevel;
+		mOffset = offset;
+	}
+
+	void reset() {
+		mDarkLux = DEFAULT_DARK_LUX;
+		mMaxLux = DEFAULT_MAX_LUX;
+		mDarkLevel = DEFAULT_DARK_LEVEL;
+		mOffset = DEFAULT_OFFSET;
+	}
+
+	void setMaxLux(float maxLux) {
+		mMaxLux = maxLux;
+	}
+
+	/**
+	 * Apply parameters from a config string such as the one written by
+	 * toConfig(), e.g. "darkLux=10 maxLux=1000 darkLevel=20 offset=70".
+	 * Missing keys keep their current value.
+	 */
+	void configure(String config) {
+		if (config == null) {
+			return;
+		}
+
+		for (String entry : config.trim().split("[\\s,;]+")) {
+			int split = entry.indexOf('=');
+			if (split < 0) {
+				continue;
+			}
+
+			String key = entry.substring(0, split);
+			String value = entry.substring(split + 1);
+			try {
+				if ("darkLux".equals(key)) {
+					mDarkLux = Float.parseFloat(value);
+				} else if ("maxLux".equals(key)) {
+					mMaxLux = Float.parseFloat(value);
+				} else if ("darkLevel".equals(key)) {
+					mDarkLevel = Integer.parseInt(value);
+				} else if ("offset".equals(key)) {
+					mOffset = Integer.parseInt(value);
+				}
+			} catch (NumberFormatException e) {
+				// Keep the current value
+			}
+		}
+	}
+
+	@Override
+	float[] getBreakpoints() {
+		// Dark below darkLux, full brightness above maxLux
+		return new float[] { mDarkLux, Math.nextUp(mMaxLux) };
+	}
+
+	String toConfig() {
+		return "darkLux=" + mDarkLux + " maxLux=" + mMaxLux + " darkLevel="
+				+ mDarkLevel + " offset=" + mOffset;
+	}
+
 	@Override
-	int computeBrightness(Data data) {
+	int computeBrightness(float lux, int relativeLevel) {
 		// int prevBrightness = data.getBrightness();
-		float lux = data.getLux();
-		int relativeLevel = data.getRelativeLevel();
 		// int level = (int) (8 * lux / 10 + 12 * relativeLevel / 10);
 		// int newBrightness = 0;
 
-		if (lux < 10) {
-			if (relativeLevel < 20) {
+		if (lux < mDarkLux) {
+			if (relativeLevel < mDarkLevel) {
 				return 0;
 			} else {
 				return relativeLevel / 2;
 			}
-		} else if (lux > MAX_LUX) {
+		} else if (lux > mMaxLux) {
 			return 255;
 		} else {
-			return 70 + (relativeLevel / 2);
+			return Math.min(mOffset + (relativeLevel / 2), MAX);
 		}
 
 		// newBrightness = (int) (200 * (Math.log(relativeLevel + 1) - Math
@@ -0,0 +1,32 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Exponential moving average; alpha of 1 passes readings through.
+ */
+class EmaLuxFilter extends LuxFilter {
+	private final float mAlpha;
+	private float mValue;
+	private boolean mPrimed = false;
+
+	EmaLuxFilter(float alpha) {
+		mAlpha = Math.min(Math.max(alpha, 0.0f), 1.0f);
+	}
+
+	@Override
+	float filter(float lux) {
+		if (!mPrimed) {
+			mValue = lux;
+			mPrimed = true;
+		} else {
+			mValue += mAlpha * (lux - mValue);
+		}
+
+		return mValue;
+	}
+
+	@Override
+	void reset() {
+		mPrimed = false;
+	}
+
+}
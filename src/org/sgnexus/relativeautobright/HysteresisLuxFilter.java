@@ -0,0 +1,40 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Holds the last accepted reading until lux moves outside a band around it.
+ * The band is a ratio, i.e. constant width in the log domain, so 1 -> 2 lux
+ * counts as much as 500 -> 1000 lux.
+ */
+class HysteresisLuxFilter extends LuxFilter {
+	private final float mRatio;
+	private float mHeld;
+	private boolean mPrimed = false;
+
+	/**
+	 * @param band
+	 *            fraction the reading must move by, e.g. 0.1 for 10%
+	 */
+	HysteresisLuxFilter(float band) {
+		mRatio = 1.0f + Math.max(band, 0.0f);
+	}
+
+	@Override
+	float filter(float lux) {
+		// Offset by one so readings near 0 lux don't flap
+		float value = lux + 1.0f;
+		float held = mHeld + 1.0f;
+
+		if (!mPrimed || value > held * mRatio || value * mRatio < held) {
+			mHeld = lux;
+			mPrimed = true;
+		}
+
+		return mHeld;
+	}
+
+	@Override
+	void reset() {
+		mPrimed = false;
+	}
+
+}
@@ -0,0 +1,210 @@
+package org.sgnexus.relativeautobright;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Learns how much brighter or darker than the base strategy the user wants
+ * each lux bucket, from their increase/decrease taps, and adds that on top
+ * of the base curve at whatever relative level is in effect. Per-bucket
+ * running means are fitted so the correction never falls as lux rises
+ * (isotonic regression), which keeps the corrected curve monotone at every
+ * level whenever the base curve is. Buckets with no taps interpolate
+ * between their trained neighbours, and fade to no correction beyond them.
+ */
+class LearningStrategy extends AutoBrightnessStrategy {
+	static final int BUCKETS = LookupTableStrategy.BUCKETS;
+
+	// Brightness change for one tap of INCREASE_LEVEL
+	static final int STEP = Data.INCREASE_LEVEL * Data.MAX_BRIGHTNESS
+			/ Data.MAX_RELATIVE_LEVEL;
+	// Cap on sample weight so old taps keep fading out
+	static private final int MAX_WEIGHT = 8;
+	static final int VERSION = 2;
+
+	private final AutoBrightnessStrategy mBase;
+
+	// Running mean of the wanted correction per bucket, and its weight
+	private final float[] mMean = new float[BUCKETS];
+	private final int[] mCount = new int[BUCKETS];
+
+	// Fitted correction per bucket, added to the base brightness
+	private final short[] mCorrection = new short[BUCKETS];
+
+	// Scratch space for the fit
+	private final float[] mBlockValue = new float[BUCKETS];
+	private final int[] mBlockWeight = new int[BUCKETS];
+	private final int[] mBlockStart = new int[BUCKETS];
+	private final float[] mFitted = new float[BUCKETS];
+
+	LearningStrategy(AutoBrightnessStrategy base) {
+		mBase = base;
+		fit();
+	}
+
+	@Override
+	int computeBrightness(float lux, int relativeLevel) {
+		int brightness = mBase.computeBrightness(lux, relativeLevel)
+				+ mCorrection[LookupTableStrategy.bucketOf(lux)];
+		return Math.min(Math.max(brightness, MIN), MAX);
+	}
+
+	@Override
+	float[] getBreakpoints() {
+		return mBase.getBreakpoints();
+	}
+
+	/**
+	 * Record that the user asked for `steps` taps brighter (or darker if
+	 * negative) than what we showed at this lux and level.
+	 */
+	void learnAdjustment(float lux, int relativeLevel, int steps) {
+		int current = computeBrightness(lux, relativeLevel);
+		learn(lux, relativeLevel, current + steps * STEP);
+	}
+
+	/**
+	 * Record a preferred brightness at the given lux and level and refit.
+	 */
+	void learn(float lux, int relativeLevel, int brightness) {
+		int bucket = LookupTableStrategy.bucketOf(lux);
+		brightness = Math.min(Math.max(brightness, MIN), MAX);
+		int correction = brightness
+				- mBase.computeBrightness(lux, relativeLevel);
+
+		if (mCount[bucket] < MAX_WEIGHT) {
+			mCount[bucket]++;
+		}
+		mMean[bucket] += (correction - mMean[bucket]) / mCount[bucket];
+
+		fit();
+	}
+
+	void forget() {
+		for (int i = 0; i < BUCKETS; i++) {
+			mCount[i] = 0;
+			mMean[i] = 0;
+		}
+		fit();
+	}
+
+	/**
+	 * Correction currently added at the given lux.
+	 */
+	int getCorrection(float lux) {
+		return mCorrection[LookupTableStrategy.bucketOf(lux)];
+	}
+
+	/**
+	 * Pool adjacent violators over the trained buckets, then fill in the
+	 * untrained ones. O(BUCKETS), no allocation.
+	 */
+	private void fit() {
+		int blocks = 0;
+
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			if (mCount[bucket] == 0) {
+				continue;
+			}
+
+			mBlockValue[blocks] = mMean[bucket];
+			mBlockWeight[blocks] = mCount[bucket];
+			mBlockStart[blocks] = bucket;
+			blocks++;
+
+			while (blocks > 1
+					&& mBlockValue[blocks - 2] > mBlockValue[blocks - 1]) {
+				int weight = mBlockWeight[blocks - 2] + mBlockWeight[blocks - 1];
+				mBlockValue[blocks - 2] = (mBlockValue[blocks - 2]
+						* mBlockWeight[blocks - 2] + mBlockValue[blocks - 1]
+						* mBlockWeight[blocks - 1])
+						/ weight;
+				mBlockWeight[blocks - 2] = weight;
+				blocks--;
+			}
+		}
+
+		int first = -1;
+		int last = -1;
+		for (int block = 0; block < blocks; block++) {
+			int end = block + 1 < blocks ? mBlockStart[block + 1] : BUCKETS;
+			for (int bucket = mBlockStart[block]; bucket < end; bucket++) {
+				if (mCount[bucket] > 0) {
+					mFitted[bucket] = mBlockValue[block];
+					if (first < 0) {
+						first = bucket;
+					}
+					last = bucket;
+				}
+			}
+		}
+
+		if (first < 0) {
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				mCorrection[bucket] = 0;
+			}
+			return;
+		}
+
+		// Below and above the trained range, fade out only in the direction
+		// that keeps the correction from falling
+		for (int bucket = 0; bucket < first; bucket++) {
+			mFitted[bucket] = Math.min(mFitted[first], 0);
+		}
+		for (int bucket = last + 1; bucket < BUCKETS; bucket++) {
+			mFitted[bucket] = Math.max(mFitted[last], 0);
+		}
+
+		// In between, straight lines from one trained bucket to the next
+		int previous = first;
+		for (int bucket = first + 1; bucket <= last; bucket++) {
+			if (mCount[bucket] == 0) {
+				continue;
+			}
+			for (int i = previous + 1; i < bucket; i++) {
+				mFitted[i] = mFitted[previous] + (mFitted[bucket] - mFitted[previous])
+						* (i - previous) / (bucket - previous);
+			}
+			previous = bucket;
+		}
+
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			mCorrection[bucket] = (short) Math.round(mFitted[bucket]);
+		}
+	}
+
+	/**
+	 * Serialize the model: bucket count, then weight and mean correction
+	 * per bucket.
+	 */
+	byte[] toBytes() {
+		ByteBuffer buffer = ByteBuffer.allocate(1 + 5 * BUCKETS);
+		buffer.put((byte) BUCKETS);
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			buffer.put((byte) mCount[bucket]);
+			buffer.putFloat(mMean[bucket]);
+		}
+
+		return buffer.array();
+	}
+
+	/**
+	 * Replace the model with one written by toBytes(); returns false and
+	 * leaves the model alone if the data does not fit.
+	 */
+	boolean readFrom(ByteBuffer buffer) {
+		if (buffer.remaining() != 1 + 5 * BUCKETS
+				|| (buffer.get() & 0xFF) != BUCKETS) {
+			return false;
+		}
+
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			mCount[bucket] = Math.min(buffer.get() & 0xFF, MAX_WEIGHT);
+			float mean = buffer.getFloat();
+			// Also turns NaN into 0
+			mMean[bucket] = mean >= -MAX && mean <= MAX ? mean : 0;
+		}
+		fit();
+		return true;
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.sgnexus.relativeautobright;
+
+import java.util.Arrays;
+
+/**
+ * Caches another strategy's curve in a table indexed by log2 lux bucket and
+ * relative level, so a sensor reading costs a single array lookup. Buckets
+ * holding one of the reference curve's breakpoints are split there, so a
+ * piecewise-constant curve such as DefaultStrategy comes out exact.
+ */
+class LookupTableStrategy extends AutoBrightnessStrategy {
+
+	// Buckets per doubling of lux (must be a power of two)
+	static final int BUCKETS_PER_OCTAVE = 4;
+	static final int OCTAVES = 18; // 1 lux up to ~262k lux
+	static final int BUCKETS = OCTAVES * BUCKETS_PER_OCTAVE + 1;
+	static final int LEVELS = Data.MAX_RELATIVE_LEVEL + 1;
+
+	// Float bits shifted down to exponent plus the top mantissa bits
+	static private final int SHIFT = 23 - Integer
+			.numberOfTrailingZeros(BUCKETS_PER_OCTAVE);
+	static private final int ONE_LUX_BITS = Float.floatToRawIntBits(1.0f) >> SHIFT;
+
+	private final AutoBrightnessStrategy mReference;
+
+	// Segments are buckets, split at breakpoints; bucket b holds segments
+	// mFirstSegment[b] up to mFirstSegment[b + 1]
+	private final int[] mFirstSegment = new int[BUCKETS + 1];
+	private float[] mSegmentStart;
+	private byte[] mTable;
+
+	LookupTableStrategy(AutoBrightnessStrategy reference) {
+		mReference = reference;
+		rebuild();
+	}
+
+	/**
+	 * Recompute the table; call whenever the reference curve changes.
+	 */
+	void rebuild() {
+		float[] breakpoints = mReference.getBreakpoints().clone();
+		Arrays.sort(breakpoints);
+
+		// Bucket starts merged with the breakpoints inside buckets
+		float[] starts = new float[BUCKETS + breakpoints.length];
+		int segments = 0;
+		int next = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			float start = bucket == 0 ? Float.NEGATIVE_INFINITY
+					: bucketLowerBound(bucket);
+			float end = bucket + 1 < BUCKETS ? bucketLowerBound(bucket + 1)
+					: Float.POSITIVE_INFINITY;
+
+			mFirstSegment[bucket] = segments;
+			starts[segments++] = start;
+			while (next < breakpoints.length && !(breakpoints[next] >= end)) {
+				if (breakpoints[next] > starts[segments - 1]) {
+					starts[segments++] = breakpoints[next];
+				}
+				next++;
+			}
+		}
+		mFirstSegment[BUCKETS] = segments;
+
+		byte[] table = new byte[segments * LEVELS];
+		for (int segment = 0; segment < segments; segment++) {
+			int row = segment * LEVELS;
+			for (int level = 0; level < LEVELS; level++) {
+				int brightness = mReference.computeBrightness(starts[segment],
+						level);
+				brightness = Math.min(Math.max(brightness, MIN), MAX);
+				table[row + level] = (byte) brightness;
+			}
+		}
+
+		mSegmentStart = Arrays.copyOf(starts, segments);
+		mTable = table;
+	}
+
+	@Override
+	int computeBrightness(float lux, int relativeLevel) {
+		if (relativeLevel < 0) {
+			relativeLevel = 0;
+		} else if (relativeLevel >= LEVELS) {
+			relativeLevel = LEVELS - 1;
+		}
+
+		int bucket = bucketOf(lux);
+		int segment = mFirstSegment[bucket];
+		int end = mFirstSegment[bucket + 1] - 1;
+		while (segment < end && lux >= mSegmentStart[segment + 1]) {
+			segment++;
+		}
+		return mTable[segment * LEVELS + relativeLevel] & 0xFF;
+	}
+
+	@Override
+	float[] getBreakpoints() {
+		return mReference.getBreakpoints();
+	}
+
+	/**
+	 * Bucket 0 holds everything below 1 lux (including the -1 "not sensed"
+	 * value). Above that each octave of lux is split into BUCKETS_PER_OCTAVE
+	 * linear steps taken straight from the float's exponent and mantissa bits.
+	 */
+	static int bucketOf(float lux) {
+		if (!(lux >= 1.0f)) {
+			return 0;
+		}
+
+		int bucket = (Float.floatToRawIntBits(lux) >> SHIFT) - ONE_LUX_BITS
+				+ 1;
+		return bucket < BUCKETS ? bucket : BUCKETS - 1;
+	}
+
+	static float bucketLowerBound(int bucket) {
+		if (bucket <= 0) {
+			return 0.0f;
+		}
+
+		return Float.intBitsToFloat((bucket - 1 + ONE_LUX_BITS) << SHIFT);
+	}
+
+}
@@ -0,0 +1,15 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * One incremental stage between the light sensor and Data.setLux. Stages
+ * must not allocate in filter().
+ */
+abstract class LuxFilter {
+
+	abstract float filter(float lux);
+
+	/**
+	 * Forget history, e.g. after the sensor has been off for a while.
+	 */
+	abstract void reset();
+}
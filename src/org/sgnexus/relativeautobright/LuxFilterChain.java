@@ -0,0 +1,55 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Runs readings through several filters in order.
+ */
+class LuxFilterChain extends LuxFilter {
+	private final LuxFilter[] mFilters;
+
+	LuxFilterChain(LuxFilter... filters) {
+		mFilters = filters;
+	}
+
+	@Override
+	float filter(float lux) {
+		for (int i = 0; i < mFilters.length; i++) {
+			lux = mFilters[i].filter(lux);
+		}
+
+		return lux;
+	}
+
+	@Override
+	void reset() {
+		for (int i = 0; i < mFilters.length; i++) {
+			mFilters[i].reset();
+		}
+	}
+
+	/**
+	 * Median, then EMA, then hysteresis; stages set to pass-through values
+	 * are left out.
+	 */
+	static LuxFilterChain create(int medianWindow, int smoothingPercent,
+			int hysteresisPercent) {
+		LuxFilter[] filters = new LuxFilter[3];
+		int count = 0;
+
+		if (medianWindow > 1) {
+			filters[count++] = new MedianLuxFilter(medianWindow);
+		}
+		if (smoothingPercent > 0) {
+			filters[count++] = new EmaLuxFilter(
+					(100 - Math.min(smoothingPercent, 99)) / 100.0f);
+		}
+		if (hysteresisPercent > 0) {
+			filters[count++] = new HysteresisLuxFilter(
+					hysteresisPercent / 100.0f);
+		}
+
+		LuxFilter[] chain = new LuxFilter[count];
+		System.arraycopy(filters, 0, chain, 0, count);
+		return new LuxFilterChain(chain);
+	}
+
+}
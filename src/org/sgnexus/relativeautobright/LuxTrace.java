@@ -0,0 +1,193 @@
+package org.sgnexus.relativeautobright;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A recorded series of (time, lux) samples, optionally with the brightness
+ * that was wanted at each one, the relative level it was wanted at and
+ * whether the proximity sensor was covered.
+ */
+class LuxTrace {
+	final String name;
+	final long[] time;
+	final float[] lux;
+	// Wanted brightness per sample, or null if unlabelled
+	final short[] label;
+	// Proximity covered per sample, or null if not recorded
+	final boolean[] near;
+	// Relative level per sample, or null if not recorded
+	final byte[] level;
+
+	LuxTrace(String name, long[] time, float[] lux, short[] label) {
+		this(name, time, lux, label, null);
+	}
+
+	LuxTrace(String name, long[] time, float[] lux, short[] label,
+			boolean[] near) {
+		this(name, time, lux, label, near, null);
+	}
+
+	LuxTrace(String name, long[] time, float[] lux, short[] label,
+			boolean[] near, byte[] level) {
+		this.name = name;
+		this.time = time;
+		this.lux = lux;
+		this.label = label;
+		this.near = near;
+		this.level = level;
+	}
+
+	int size() {
+		return time.length;
+	}
+
+	long duration() {
+		return time.length == 0 ? 0 : time[time.length - 1] - time[0];
+	}
+
+	/**
+	 * Index of the last sample at or before the given time (0 if none).
+	 */
+	int indexAt(long timeMs, int from) {
+		int i = Math.max(from, 0);
+		while (i + 1 < time.length && time[i + 1] <= timeMs) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Read a CSV whose first columns are time in ms and lux, such as the one
+	 * written by TraceRecorder.exportCsv(). If labelColumn is not negative,
+	 * that column holds the wanted brightness. Lines that don't parse (e.g.
+	 * headers) are skipped.
+	 */
+	static LuxTrace readCsv(File file, int labelColumn) throws IOException {
+		return readCsv(file, labelColumn, -1);
+	}
+
+	/**
+	 * As readCsv(file, labelColumn), and if proximityColumn is not negative
+	 * that column holds the proximity distance in cm.
+	 */
+	static LuxTrace readCsv(File file, int labelColumn, int proximityColumn)
+			throws IOException {
+		return readCsv(file, labelColumn, proximityColumn, -1);
+	}
+
+	/**
+	 * As readCsv(file, labelColumn, proximityColumn), and if levelColumn is
+	 * not negative that column holds the relative level (column 2 of
+	 * exported traces).
+	 */
+	static LuxTrace readCsv(File file, int labelColumn, int proximityColumn,
+			int levelColumn) throws IOException {
+		int capacity = 1024;
+		long[] time = new long[capacity];
+		float[] lux = new float[capacity];
+		short[] label = labelColumn >= 0 ? new short[capacity] : null;
+		boolean[] near = proximityColumn >= 0 ? new boolean[capacity] : null;
+		byte[] level = levelColumn >= 0 ? new byte[capacity] : null;
+		int count = 0;
+
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] columns = line.split(",");
+				if (columns.length < 2 || columns.length <= labelColumn
+						|| columns.length <= proximityColumn
+						|| columns.length <= levelColumn) {
+					continue;
+				}
+
+				if (count == capacity) {
+					capacity *= 2;
+					time = Arrays.copyOf(time, capacity);
+					lux = Arrays.copyOf(lux, capacity);
+					if (label != null) {
+						label = Arrays.copyOf(label, capacity);
+					}
+					if (near != null) {
+						near = Arrays.copyOf(near, capacity);
+					}
+					if (level != null) {
+						level = Arrays.copyOf(level, capacity);
+					}
+				}
+
+				try {
+					time[count] = Long.parseLong(columns[0].trim());
+					lux[count] = Float.parseFloat(columns[1].trim());
+					if (label != null) {
+						label[count] = Short.parseShort(columns[labelColumn]
+								.trim());
+					}
+					if (near != null) {
+						near[count] = OcclusionGate.isNear(Float
+								.parseFloat(columns[proximityColumn].trim()),
+								Float.MAX_VALUE);
+					}
+					if (level != null) {
+						level[count] = Byte.parseByte(columns[levelColumn]
+								.trim());
+					}
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				count++;
+			}
+		} finally {
+			reader.close();
+		}
+
+		return new LuxTrace(file.getName(), Arrays.copyOf(time, count),
+				Arrays.copyOf(lux, count), label != null ? Arrays.copyOf(label,
+						count) : null, near != null ? Arrays.copyOf(near, count)
+						: null, level != null ? Arrays.copyOf(level, count) : null);
+	}
+
+	/**
+	 * Read a trace-N.bin file written by TraceRecorder, labelled with the
+	 * brightness the service computed and the level it computed it for.
+	 */
+	static LuxTrace readRecorded(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer buffer = raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			int capacity = (int) (raf.length() / TraceRecorder.RECORD_SIZE);
+			long[] time = new long[capacity];
+			float[] lux = new float[capacity];
+			short[] label = new short[capacity];
+			byte[] level = new byte[capacity];
+			int count = 0;
+
+			while (count < capacity) {
+				time[count] = buffer.getLong();
+				lux[count] = buffer.getFloat();
+				label[count] = buffer.getShort();
+				level[count] = buffer.get();
+				buffer.get(); // written flag
+				if (time[count] == 0) {
+					break;
+				}
+				count++;
+			}
+
+			return new LuxTrace(file.getName(), Arrays.copyOf(time, count),
+					Arrays.copyOf(lux, count), Arrays.copyOf(label, count), null,
+					Arrays.copyOf(level, count));
+		} finally {
+			raf.close();
+		}
+	}
+
+}
@@ -1,8 +1,13 @@
 package org.sgnexus.relativeautobright;
 
-import java.util.Observable;
-import java.util.Observer;
-
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import android.app.ActivityManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
@@ -13,80 +18,353 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Debug;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.os.Vibrator;
 import android.provider.Settings;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 import android.widget.RemoteViews;
 
-public class MainService extends Service implements Observer,
-		SensorEventListener {
+public class MainService extends Service implements
+		Data.OnDataChangedListener, SensorEventListener {
 	private String mTag = this.getClass().getSimpleName();
 	private Data mData;
+	private Metrics mMetrics;
 	private ScreenReceiver mScreenReceiver;
 	private SensorManager mSensorManager;
+	private ActivityManager mActivityManager;
 	private Sensor mLightSensor;
-
-	private int mRelativeLevel;
-	private long mSenseIntervalMs;
-	private float mLux;
-	private int mBrightness;
-	private Runnable mScheduledSenseRunnable;
-
-	private AutoBrightnessStrategy mStrategy = new DefaultStrategy();
+	private Sensor mProximitySensor;
+	private boolean mProximityRegistered = false;
+
+	private WarmStart mWarmStart;
+	// Set once settings are loaded
+	private AppProfiles mAppProfiles;
+	private String mForegroundApp;
+	private boolean mBatchSensing;
+	private boolean mSensorRegistered = false;
+	private boolean mSensingPaused = false;
+
+	// Lux samples delivered in one batch, processed together afterwards
+	final private float[] mLuxBatch = new float[LUX_BATCH_CAPACITY];
+	private int mLuxBatchSize = 0;
+
+	// Reading to brightness, see BrightnessPipeline
+	private BrightnessPipeline mPipeline;
+	private TraceRecorder mTraceRecorder;
+
+	private StateStore mLearnerStore;
+	private DefaultStrategy mCurve = new DefaultStrategy();
+	private LookupTableStrategy mCurveTable = new LookupTableStrategy(mCurve);
+	private LearningStrategy mLearner = new LearningStrategy(mCurveTable);
+	final private StrategyRegistry mStrategies = new StrategyRegistry();
 
 	final private static String NOTIFICATION_ACTION_DECREASE = "decrease";
 	final private static String NOTIFICATION_ACTION_INCREASE = "increase";
 
-	final private Handler HANDLER = new Handler(); // for caching only
+	final private static String LEARNED_CURVE_FILE = "learned_curve.bin";
+	final private static String WARM_START_FILE = "warm_start.bin";
+
+	final private static int LUX_BATCH_CAPACITY = 64;
+
+	final private static String SENSE_TAG = "sense";
+	final private static boolean DEBUG = Log.isLoggable(SENSE_TAG, Log.DEBUG);
+
+	// Sensor delivery, filtering, strategy evaluation and brightness writes
+	// all run on this thread, off the main looper
+	private HandlerThread mSensorThread;
+	private Handler mHandler;
+	private long mCreateTime;
+
+	// Changes raised on other threads, handled together on the sensor thread
+	final private PendingChanges mPendingChanges = new PendingChanges();
+
+	final private Runnable mPendingChangesRunnable = new Runnable() {
+		@Override
+		public void run() {
+			int changes = mPendingChanges.take();
+			for (int i = 0; i < Data.CHANGE_COUNT; i++) {
+				if ((changes & Data.changeMask(i)) != 0) {
+					handleDataChanged(i);
+				}
+			}
+		}
+	};
+
+	// Reused for every pause so the sensor path does not allocate
+	final private Runnable mResumeSensingRunnable = new Runnable() {
+		@Override
+		public void run() {
+			mPipeline.onWakeUp();
+			mSensingPaused = false;
+			startSensingLight();
+		}
+	};
+
+	final private Runnable mProcessLuxBatchRunnable = new Runnable() {
+		@Override
+		public void run() {
+			processLuxBatch();
+		}
+	};
+
+	final private Runnable mForegroundAppRunnable = new Runnable() {
+		@Override
+		public void run() {
+			mPipeline.onWakeUp();
+			updateForegroundApp();
+			scheduleForegroundAppCheck();
+		}
+	};
+
+	final private Runnable mRampStepRunnable = new Runnable() {
+		@Override
+		public void run() {
+			mPipeline.stepRamp();
+		}
+	};
+
+	final private BrightnessPipeline.Host mPipelineHost = new BrightnessPipeline.Host() {
+		@Override
+		public long uptimeMillis() {
+			return SystemClock.uptimeMillis();
+		}
+
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+
+		@Override
+		public void publishLux(float lux) {
+			mData.setLux(lux);
+			if (DEBUG) {
+				Log.d(SENSE_TAG, "lux: " + lux);
+			}
+		}
+
+		@Override
+		public boolean writeBrightness(int brightness) {
+			return mData.setBrightness(brightness);
+		}
+
+		@Override
+		public BrightnessSink getWindowSink() {
+			return mData.getWindowSink();
+		}
+
+		@Override
+		public void scheduleRampStep(long delayMs) {
+			mHandler.postDelayed(mRampStepRunnable, delayMs);
+		}
+
+		@Override
+		public void cancelRampStep() {
+			mHandler.removeCallbacks(mRampStepRunnable);
+		}
+
+		@Override
+		public void onPowerBudgetChanged() {
+			PowerBudget budget = mPipeline.getPowerBudget();
+			Log.d(mTag, "power budget level " + budget.getLevel() + ", "
+					+ Math.round(budget.getWakeUpRate()) + " wake-ups/h");
+			if (mBatchSensing) {
+				restartSensingLight();
+			}
+		}
+
+		@Override
+		public void record(float lux, int level, int brightness,
+				boolean written) {
+			mTraceRecorder.record(System.currentTimeMillis(), lux, level,
+					brightness, written);
+		}
+	};
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		mCreateTime = SystemClock.uptimeMillis();
+		mSensorThread = new HandlerThread(mTag, Process.THREAD_PRIORITY_DISPLAY);
+		mSensorThread.start();
+		mHandler = new Handler(mSensorThread.getLooper());
+	}
 
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
 		String action = intent.getAction();
 		if (NOTIFICATION_ACTION_INCREASE.equals(action)) {
-			increaseBrightness();
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					increaseBrightness();
+				}
+			});
 			return super.onStartCommand(intent, flags, startId);
 		} else if (NOTIFICATION_ACTION_DECREASE.equals(action)) {
-			decreaseBrightness();
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					decreaseBrightness();
+				}
+			});
+			return super.onStartCommand(intent, flags, startId);
+		} else if (mData != null) {
+			// Already set up; starting again would leak the screen receiver
+			// and re-run start(), resetting sensing and the ramp
 			return super.onStartCommand(intent, flags, startId);
 		}
 
 		Log.d(mTag, "starting service");
 
-		// Load settings
+		// Nothing here waits for settings to be read; the rest of the setup
+		// happens on the sensor thread once they are
 		mData = Data.getInstance(getApplicationContext());
-		mBrightness = mData.getBrightness();
-		mRelativeLevel = mData.getRelativeLevel();
-		mSenseIntervalMs = mData.getSenseInterval();
-		mLux = mData.getLux();
-
-		// Set to manual brightness mode
-		mData.setBrightnessMode(Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
+		mMetrics = mData.getMetrics();
+		mData.getBrightnessWriter().traceNextWrite(mCreateTime);
+		mActivityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+		mTraceRecorder = mData.getTraceRecorder();
+		mLearnerStore = new StateStore(new File(getFilesDir(),
+				LEARNED_CURVE_FILE), LearningStrategy.VERSION);
+		mWarmStart = new WarmStart(new File(getFilesDir(), WARM_START_FILE));
+		mPipeline = new BrightnessPipeline(mPipelineHost, mMetrics, mWarmStart,
+				mLearner);
 
-		// Observe setting changes
-		mData.addObserver(this);
+		// Setup light sensor
+		mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+		mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+		mProximitySensor = mSensorManager
+				.getDefaultSensor(Sensor.TYPE_PROXIMITY);
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				start();
+			}
+		});
 
 		// Setup screen on/off detector
 		mScreenReceiver = new ScreenReceiver();
 		IntentFilter filter = new IntentFilter();
 		filter.addAction(Intent.ACTION_SCREEN_ON);
 		filter.addAction(Intent.ACTION_SCREEN_OFF);
-		registerReceiver(mScreenReceiver, filter);
+		registerReceiver(mScreenReceiver, filter, null, mHandler);
 
-		// Setup light sensor
-		mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-		mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
-		startSensingLight();
+		// Start the foreground notification
+		startNotification();
+
+		return super.onStartCommand(intent, flags, startId);
+	}
+
+	/**
+	 * Sensor thread part of starting up. The light sensor is registered
+	 * first, in the default mode, so its first reading is already on the
+	 * way while settings load; readings queue behind this method.
+	 */
+	private void start() {
+		Trace.beginSection("MainService.start");
+		try {
+			startSensingLight();
+			mData.awaitLoaded();
+			loadSettings();
+		} finally {
+			Trace.endSection();
+		}
+	}
+
+	private void loadSettings() {
+		mPipeline.setBrightness(mData.getBrightness());
+		mPipeline.setLevel(mData.getRelativeLevel(),
+				mData.getBaseRelativeLevel());
+		mPipeline.setSenseInterval(mData.getSenseInterval());
+		mBatchSensing = mData.getBatchSensing();
+		mPipeline.setWakeUpBudget(mData.getWakeUpBudget());
+		mPipeline.setLuxFilter(mData.getLuxMedianWindow(),
+				mData.getLuxSmoothing(), mData.getLuxHysteresis());
+		configureCurve();
+		mStrategies.register(Data.STRATEGY_LEARNING, mLearner);
+		mStrategies.register(Data.STRATEGY_TABLE, mCurveTable);
+		mStrategies.register(Data.STRATEGY_CURVE, mCurve);
+		selectStrategy();
+		mPipeline.setSchedule(mData.getSchedule());
+		mPipeline.setRampDuration(mData.getRampDuration());
+		mAppProfiles = mData.getAppProfiles();
+		loadLearnedCurve();
+
+		// Set to manual brightness mode
+		mData.setBrightnessMode(Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
+
+		// Observe setting changes
+		mData.addListener(this, Data.changeMask(Data.CHANGE_RELATIVE_LEVEL)
+				| Data.changeMask(Data.CHANGE_BRIGHTNESS)
+				| Data.changeMask(Data.CHANGE_BRIGHTNESS_MODE)
+				| Data.changeMask(Data.CHANGE_SENSE_INTERVAL)
+				| Data.changeMask(Data.CHANGE_SENSE_MODE)
+				| Data.changeMask(Data.CHANGE_LUX_FILTER)
+				| Data.changeMask(Data.CHANGE_RAMP_DURATION)
+				| Data.changeMask(Data.CHANGE_CURVE)
+				| Data.changeMask(Data.CHANGE_APP_PROFILES)
+				| Data.changeMask(Data.CHANGE_SCHEDULE)
+				| Data.changeMask(Data.CHANGE_STRATEGY)
+				| Data.changeMask(Data.CHANGE_WAKE_UP_BUDGET));
+
+		if (mBatchSensing) {
+			restartSensingLight();
+		}
+
+		try {
+			mWarmStart.open();
+		} catch (IOException e) {
+			Log.w(mTag, "warm start state unavailable", e);
+		}
+		applyWarmStart();
+		startWatchingForegroundApp();
 
 		// Update the brightness
 		// updateBrightness();
+	}
 
-		// Start the foreground notification
-		startNotification();
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		// adb shell dumpsys activity service org.sgnexus.relativeautobright
+		if (mData == null || mAppProfiles == null) {
+			writer.println("not started");
+			return;
+		}
 
-		return super.onStartCommand(intent, flags, startId);
+		SenseScheduler scheduler = mPipeline.getScheduler();
+		writer.println("lux: " + mPipeline.getLux() + ", level: "
+				+ mData.getRelativeLevel() + ", brightness: "
+				+ mPipeline.getBrightness());
+		writer.println("foreground app: " + mForegroundApp + ", offset: "
+				+ mData.getLevelOffset() + " (" + mAppProfiles.size()
+				+ " profiles)");
+		writer.println("warm start: lux " + mWarmStart.getLux() + ", brightness "
+				+ mWarmStart.getBrightness() + ", confidence "
+				+ mWarmStart.confidence(System.currentTimeMillis()));
+		writer.println("schedule offset: " + mPipeline.getScheduleOffset()
+				+ ", scheduled level: " + mPipeline.getScheduledLevel());
+		writer.println("sensor registered: " + mSensorRegistered
+				+ ", paused: " + mSensingPaused + ", batch: " + mBatchSensing);
+		writer.println("sense interval: " + scheduler.getInterval()
+				+ "ms, wake-ups: " + scheduler.getWakeUps()
+				+ ", snap-backs: " + scheduler.getSnapBacks());
+		writer.println("power: "
+				+ mPipeline.getPowerBudget().describe(
+						SystemClock.uptimeMillis()));
+		writer.println("strategy: " + mData.getStrategy() + ", shadow: "
+				+ mData.getShadowStrategy());
+		if (mPipeline.getStrategy() instanceof ShadowStrategy) {
+			writer.println(mPipeline.getStrategy());
+		}
+		mMetrics.dump(writer);
 	}
 
 	@Override
@@ -97,82 +375,273 @@ public class MainService extends Service implements Observer,
 	@Override
 	public void onDestroy() {
 		Log.d(mTag, "stopping service");
-		stopSensingLight();
+		BrightnessWriter writer = mData.getBrightnessWriter();
+		Log.d(mTag, "brightness writes: " + writer.getActualWrites() + " of "
+				+ writer.getRequestedWrites() + " requested");
 		unregisterReceiver(mScreenReceiver);
-		mData.deleteObserver(this);
-		mData.setServiceEnabled(false);
+		mData.removeListener(this);
+		// Saved so the settings switch is right even if we stopped ourselves
+		mData.setServiceEnabled(false, true);
 
-		// Set lux to -1 so that service will update brightness when started
-		// again even if same lux is present, and so UI knows lux is not being
-		// monitored
-		mData.setLux(-1.0f);
+		// Runs before the thread quits; later delayed callbacks are dropped
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				// Again, in case start() subscribed after the call above
+				mData.removeListener(MainService.this);
+				SenseScheduler scheduler = mPipeline.getScheduler();
+				Log.d(mTag, "sensor wake-ups: " + scheduler.getWakeUps()
+						+ ", snap-backs: " + scheduler.getSnapBacks()
+						+ ", interval: " + scheduler.getInterval() + "ms");
+				stopSensingLight();
+				stopWatchingForegroundApp();
+				mHandler.removeCallbacks(mRampStepRunnable);
+				mTraceRecorder.flush();
+
+				// Set lux to -1 so that service will update brightness when
+				// started again even if same lux is present, and so UI knows
+				// lux is not being monitored
+				mData.setLux(-1.0f);
+				mData.setLevelOffset(0);
+			}
+		});
+		mSensorThread.quitSafely();
 
 		this.stopForeground(true);
 		super.onDestroy();
 	}
 
 	private void increaseBrightness() {
-		mData.setRelativeLevel(mRelativeLevel + Data.INCREASE_LEVEL, true);
+		adjustBrightness(1);
 	}
 
 	private void decreaseBrightness() {
-		mData.setRelativeLevel(mRelativeLevel - Data.INCREASE_LEVEL, true);
+		adjustBrightness(-1);
 	}
 
-	private void enableSensingLight() {
-		if (mScheduledSenseRunnable == null) {
-			startSensingLight();
+	/**
+	 * A tap either trains the learner, which then moves the curve itself, or
+	 * moves the user's level; never both, or each tap would count twice.
+	 */
+	private void adjustBrightness(int steps) {
+		int baseLevel = mData.getBaseRelativeLevel();
+		// Nothing to learn from if the light sensor has not reported yet, and
+		// the end levels turn sensing off
+		float lux = mPipeline.getLux();
+		if (Data.STRATEGY_LEARNING.equals(mData.getStrategy()) && lux >= 0
+				&& baseLevel > Data.MIN_RELATIVE_LEVEL
+				&& baseLevel < Data.MAX_RELATIVE_LEVEL) {
+			mLearner.learnAdjustment(lux, mPipeline.getScheduledLevel(), steps);
+			saveLearnedCurve();
+			updateBrightness();
+		} else {
+			// Adjust the user's level; the app offset stays on top of it
+			mData.setRelativeLevel(baseLevel + steps * Data.INCREASE_LEVEL,
+					true);
 		}
 	}
 
+	private void loadLearnedCurve() {
+		// Already off the main thread, and the learner is only touched there
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				// Takes effect from the next lux reading
+				ByteBuffer model = mLearnerStore.load();
+				if (model != null && !mLearner.readFrom(model)) {
+					Log.w(mTag, "ignoring learned curve of wrong size");
+				}
+			}
+		});
+	}
+
+	private void saveLearnedCurve() {
+		mLearnerStore.saveAsync(mLearner.toBytes());
+	}
+
 	private void startSensingLight() {
-		Log.d("sense", "starting light sensor");
-		if (mScheduledSenseRunnable == null) {
+		if (mSensorRegistered || mSensingPaused) {
+			return;
+		}
+
+		if (DEBUG) {
+			Log.d(SENSE_TAG, "starting light sensor");
+		}
+		if (mBatchSensing) {
+			// Stay registered and let the sensor hub queue readings for up
+			// to one sense interval
+			int intervalUs = (int) (mPipeline.getBaseSenseInterval() * 1000);
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+				mSensorManager.registerListener(this, mLightSensor,
+						SensorManager.SENSOR_DELAY_NORMAL, intervalUs, mHandler);
+			} else {
+				mSensorManager.registerListener(this, mLightSensor,
+						intervalUs, mHandler);
+			}
+		} else {
 			mSensorManager.registerListener(this, mLightSensor,
-					SensorManager.SENSOR_DELAY_NORMAL);
+					SensorManager.SENSOR_DELAY_NORMAL, mHandler);
 		}
+		mSensorRegistered = true;
+		mPipeline.getPowerBudget().onSensorRegistered(SystemClock.uptimeMillis());
+		mMetrics.sensorRegistrations.increment();
+		startSensingProximity();
 	}
 
 	private void stopSensingLight() {
-		mSensorManager.unregisterListener(this, mLightSensor);
-		if (mScheduledSenseRunnable != null) {
-			HANDLER.removeCallbacks(mScheduledSenseRunnable);
-			mScheduledSenseRunnable = null;
+		if (mSensorRegistered) {
+			mSensorManager.unregisterListener(this, mLightSensor);
+			mSensorRegistered = false;
+			mPipeline.getPowerBudget().onSensorUnregistered(
+					SystemClock.uptimeMillis());
+			mMetrics.sensorUnregistrations.increment();
+			stopSensingProximity();
+		}
+		if (mSensingPaused) {
+			mHandler.removeCallbacks(mResumeSensingRunnable);
+			mSensingPaused = false;
+		}
+	}
+
+	/**
+	 * Proximity is only on while the light sensor is, i.e. while a reading
+	 * is being taken, or all along in batch mode. The gate keeps the last
+	 * state across pauses until the sensor's first report after
+	 * registering.
+	 */
+	private void startSensingProximity() {
+		if (mProximitySensor == null || mProximityRegistered) {
+			return;
+		}
+		mSensorManager.registerListener(this, mProximitySensor,
+				SensorManager.SENSOR_DELAY_NORMAL, mHandler);
+		mProximityRegistered = true;
+	}
+
+	private void stopSensingProximity() {
+		if (mProximityRegistered) {
+			mSensorManager.unregisterListener(this, mProximitySensor);
+			mProximityRegistered = false;
+		}
+	}
+
+	private void restartSensingLight() {
+		if (mSensorRegistered || mSensingPaused) {
+			stopSensingLight();
+			startSensingLight();
 		}
 	}
 
 	private void pauseSensingLight(long delay) {
-		Log.d("sense", "pausing light sensor");
+		if (DEBUG) {
+			Log.d(SENSE_TAG, "pausing light sensor");
+		}
 		stopSensingLight();
-		mScheduledSenseRunnable = new Runnable() {
-			@Override
-			public void run() {
-				mScheduledSenseRunnable = null;
-				startSensingLight();
+		mSensingPaused = true;
+		mHandler.postDelayed(mResumeSensingRunnable, delay);
+	}
+
+	private void queueLux(float lux) {
+		if (mLuxBatchSize == 0) {
+			// First sample of a batch; the rest arrive before this runs
+			mHandler.post(mProcessLuxBatchRunnable);
+		}
+		if (mLuxBatchSize < LUX_BATCH_CAPACITY) {
+			mLuxBatch[mLuxBatchSize++] = lux;
+		} else {
+			mLuxBatch[LUX_BATCH_CAPACITY - 1] = lux;
+		}
+	}
+
+	private void processLuxBatch() {
+		if (DEBUG) {
+			Log.d(SENSE_TAG, "lux batch of " + mLuxBatchSize);
+		}
+		int count = mLuxBatchSize;
+		mLuxBatchSize = 0;
+		mPipeline.onBatch(mLuxBatch, count);
+	}
+
+	private void configureCurve() {
+		// Curve config is applied last so optimizer output can override
+		// the max lux preference
+		mCurve.reset();
+		mCurve.setMaxLux(mData.getMaxLux());
+		mCurve.configure(mData.getCurveConfig());
+		mCurveTable.rebuild();
+	}
+
+	private void selectStrategy() {
+		mPipeline.setStrategy(mStrategies.select(mData.getStrategy(),
+				mData.getShadowStrategy(), mMetrics));
+		Log.d(mTag, "strategy: " + mData.getStrategy() + ", shadow: "
+				+ mData.getShadowStrategy());
+	}
+
+	/**
+	 * Check the foreground app now and then on a timer of its own, while
+	 * the screen is on and there are profiles; it's a binder call, so it
+	 * stays out of the sensor path.
+	 */
+	private void startWatchingForegroundApp() {
+		mHandler.removeCallbacks(mForegroundAppRunnable);
+		updateForegroundApp();
+		scheduleForegroundAppCheck();
+	}
+
+	private void stopWatchingForegroundApp() {
+		mHandler.removeCallbacks(mForegroundAppRunnable);
+	}
+
+	private void scheduleForegroundAppCheck() {
+		if (mAppProfiles.size() > 0) {
+			// Stretched along with sensing when over the power budget
+			mHandler.postDelayed(mForegroundAppRunnable,
+					Data.FOREGROUND_APP_INTERVAL
+							* mPipeline.getPowerBudget().getIntervalScale());
+		}
+	}
+
+	/**
+	 * Apply the foreground app's profile if the foreground app changed; an
+	 * offset change updates the brightness straight away.
+	 */
+	private void updateForegroundApp() {
+		if (mAppProfiles.size() == 0) {
+			mForegroundApp = null;
+			mData.setLevelOffset(0);
+			return;
+		}
+
+		List<ActivityManager.RunningTaskInfo> tasks = mActivityManager
+				.getRunningTasks(1);
+		if (tasks == null || tasks.isEmpty() || tasks.get(0).topActivity == null) {
+			return;
+		}
+
+		String app = tasks.get(0).topActivity.getPackageName();
+		if (!app.equals(mForegroundApp)) {
+			mForegroundApp = app;
+			if (DEBUG) {
+				Log.d(SENSE_TAG, "foreground app: " + app);
 			}
-		};
-		HANDLER.postDelayed(mScheduledSenseRunnable, delay);
+			mData.setLevelOffset(mAppProfiles.offsetFor(app));
+		}
 	}
 
 	private void updateBrightness() {
-		int newBrightness;
-
-		if (mRelativeLevel == Data.MIN_RELATIVE_LEVEL) {
-			newBrightness = Data.MIN_BRIGHTNESS;
-			stopSensingLight();
-			buzz();
-		} else if (mRelativeLevel == Data.MAX_RELATIVE_LEVEL) {
-			newBrightness = Data.MAX_BRIGHTNESS;
+		if (mPipeline.update()) {
+			startSensingLight();
+		} else {
 			stopSensingLight();
 			buzz();
-		} else {
-			newBrightness = mStrategy.computeBrightness(mData);
-			enableSensingLight();
 		}
+	}
 
-		if (newBrightness != mBrightness) {
-			mBrightness = newBrightness;
-			mData.setBrightness(newBrightness);
+	private void applyWarmStart() {
+		int brightness = mPipeline.applyWarmStart();
+		if (DEBUG && brightness >= 0) {
+			Log.d(SENSE_TAG, "warm start: " + brightness);
 		}
 	}
 
@@ -209,20 +678,32 @@ public class MainService extends Service implements Observer,
 
 	@Override
 	public void onSensorChanged(SensorEvent event) {
-		if (event.sensor.getType() == Sensor.TYPE_LIGHT) {
-			// Turn off light sensor and schedule next reading
-			pauseSensingLight(mSenseIntervalMs);
-
-			// Get lux level
-			float newLux = event.values[0];
+		long start = System.nanoTime();
+		long cpuStart = Debug.threadCpuTimeNanos();
+		mMetrics.sensorEvents.increment();
 
-			// Only update if lux has changed significantly
-			if (Float.compare(newLux, mLux) != 0) {
-				mData.setLux(newLux);
+		if (event.sensor.getType() == Sensor.TYPE_LIGHT) {
+			if (mBatchSensing) {
+				if (mPipeline.accept()) {
+					queueLux(event.values[0]);
+				}
+			} else {
+				// Turn off light sensor until the next reading is due
+				pauseSensingLight(mPipeline.onReading(event.values[0]));
 			}
-
-			Log.d("sense", "lux: " + newLux);
+		} else if (event.sensor.getType() == Sensor.TYPE_PROXIMITY) {
+			boolean near = OcclusionGate.isNear(event.values[0],
+					mProximitySensor.getMaximumRange());
+			if (DEBUG && near != mPipeline.isNear()) {
+				Log.d(SENSE_TAG, near ? "covered" : "uncovered");
+			}
+			mPipeline.setNear(near);
 		}
+
+		mMetrics.sensorEventTime.recordSince(start);
+		long cpu = Debug.threadCpuTimeNanos() - cpuStart;
+		mPipeline.getPowerBudget().onCpu(cpu);
+		mMetrics.sensorEventCpu.record(cpu / 1000);
 	}
 
 	@Override
@@ -231,28 +712,72 @@ public class MainService extends Service implements Observer,
 	}
 
 	@Override
-	public void update(Observable observable, Object data) {
-		String key = (String) data;
+	public void onDataChanged(int change) {
+		if (Looper.myLooper() == mHandler.getLooper()) {
+			handleDataChanged(change);
+		} else if (mPendingChanges.add(change)) {
+			mHandler.post(mPendingChangesRunnable);
+		}
+	}
 
-		Log.d(mTag, "updating service: " + key);
+	private void handleDataChanged(int change) {
+		if (DEBUG) {
+			Log.d(mTag, "updating service: " + change);
+		}
 
-		if (Data.RELATIVE_LEVEL.equals(key)) {
-			mRelativeLevel = mData.getRelativeLevel();
-			updateBrightness();
-		} else if (Data.LUX.equals(key)) {
-			mLux = mData.getLux();
+		switch (change) {
+		case Data.CHANGE_RELATIVE_LEVEL:
+			mPipeline.setLevel(mData.getRelativeLevel(),
+					mData.getBaseRelativeLevel());
 			updateBrightness();
-		} else if (Data.BRIGHTNESS_MODE.equals(key)) {
+			break;
+		case Data.CHANGE_BRIGHTNESS_MODE:
 			if (mData.getBrightnessMode() == Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC) {
 				stopSelf();
 			}
-		} else if (Data.BRIGHTNESS.equals(key)) {
-			if (mBrightness != mData.getBrightness()) {
+			break;
+		case Data.CHANGE_BRIGHTNESS:
+			if (mPipeline.getBrightness() != mData.getBrightness()) {
 				// Must have had brightness changed outside of app
 				stopSelf();
 			}
-		} else if (Data.SENSE_INTERVAL.equals(key)) {
-			mSenseIntervalMs = mData.getSenseInterval();
+			break;
+		case Data.CHANGE_SENSE_INTERVAL:
+			mPipeline.setSenseInterval(mData.getSenseInterval());
+			if (mBatchSensing) {
+				restartSensingLight();
+			}
+			break;
+		case Data.CHANGE_WAKE_UP_BUDGET:
+			mPipeline.setWakeUpBudget(mData.getWakeUpBudget());
+			break;
+		case Data.CHANGE_SENSE_MODE:
+			mBatchSensing = mData.getBatchSensing();
+			restartSensingLight();
+			break;
+		case Data.CHANGE_LUX_FILTER:
+			mPipeline.setLuxFilter(mData.getLuxMedianWindow(),
+					mData.getLuxSmoothing(), mData.getLuxHysteresis());
+			break;
+		case Data.CHANGE_RAMP_DURATION:
+			mPipeline.setRampDuration(mData.getRampDuration());
+			break;
+		case Data.CHANGE_CURVE:
+			configureCurve();
+			break;
+		case Data.CHANGE_STRATEGY:
+			selectStrategy();
+			updateBrightness();
+			break;
+		case Data.CHANGE_SCHEDULE:
+			mPipeline.setSchedule(mData.getSchedule());
+			updateBrightness();
+			break;
+		case Data.CHANGE_APP_PROFILES:
+			mAppProfiles = mData.getAppProfiles();
+			mForegroundApp = null;
+			startWatchingForegroundApp();
+			break;
 		}
 	}
 
@@ -262,8 +787,16 @@ public class MainService extends Service implements Observer,
 			if (intent.getAction().equals(Intent.ACTION_SCREEN_OFF)) {
 				Log.d(mTag, "screen off");
 				stopSensingLight();
+				// Unknown until the sensor reports again
+				mPipeline.resetNear();
+				stopWatchingForegroundApp();
 			} else if (intent.getAction().equals(Intent.ACTION_SCREEN_ON)) {
 				Log.d(mTag, "screen on");
+				startWatchingForegroundApp();
+				int brightness = mPipeline.onScreenOn();
+				if (DEBUG && brightness >= 0) {
+					Log.d(SENSE_TAG, "warm start: " + brightness);
+				}
 				startSensingLight();
 			}
 		}
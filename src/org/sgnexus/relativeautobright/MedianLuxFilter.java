@@ -0,0 +1,45 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Median of the last few readings, kept in a ring buffer.
+ */
+class MedianLuxFilter extends LuxFilter {
+	private final float[] mWindow;
+	private final float[] mSorted;
+	private int mNext = 0;
+	private int mCount = 0;
+
+	MedianLuxFilter(int windowSize) {
+		mWindow = new float[Math.max(windowSize, 1)];
+		mSorted = new float[mWindow.length];
+	}
+
+	@Override
+	float filter(float lux) {
+		mWindow[mNext] = lux;
+		mNext = (mNext + 1) % mWindow.length;
+		if (mCount < mWindow.length) {
+			mCount++;
+		}
+
+		// Insertion sort; windows are only a handful of samples
+		for (int i = 0; i < mCount; i++) {
+			float value = mWindow[i];
+			int j = i - 1;
+			while (j >= 0 && mSorted[j] > value) {
+				mSorted[j + 1] = mSorted[j];
+				j--;
+			}
+			mSorted[j + 1] = value;
+		}
+
+		return mSorted[mCount / 2];
+	}
+
+	@Override
+	void reset() {
+		mNext = 0;
+		mCount = 0;
+	}
+
+}
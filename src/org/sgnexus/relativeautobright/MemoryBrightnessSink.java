@@ -0,0 +1,28 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Keeps the last brightness and counts what it was given, for driving the
+ * brightness path off-device.
+ */
+class MemoryBrightnessSink implements BrightnessSink {
+	private float mBrightness = -1.0f;
+	private int mWrites = 0;
+
+	@Override
+	public void setBrightness(float brightness) {
+		mBrightness = brightness;
+		mWrites++;
+	}
+
+	/**
+	 * Last brightness set, or -1 if none.
+	 */
+	float getBrightness() {
+		return mBrightness;
+	}
+
+	int getWrites() {
+		return mWrites;
+	}
+
+}
@@ -0,0 +1,171 @@
+package org.sgnexus.relativeautobright;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the service. Updating a metric is a
+ * few atomic adds with no locking or allocation, so it is safe on the sensor
+ * path and from any thread. Metrics are fixed at construction.
+ */
+class Metrics {
+
+	abstract static class Metric {
+		final String name;
+
+		Metric(String name) {
+			this.name = name;
+		}
+
+		abstract String describe();
+	}
+
+	static class Counter extends Metric {
+		private final AtomicLong mCount = new AtomicLong();
+
+		Counter(String name) {
+			super(name);
+		}
+
+		void increment() {
+			mCount.incrementAndGet();
+		}
+
+		long get() {
+			return mCount.get();
+		}
+
+		@Override
+		String describe() {
+			return Long.toString(get());
+		}
+	}
+
+	/**
+	 * Durations in power-of-two microsecond buckets: bucket 0 is under 1us,
+	 * bucket i is [2^(i-1), 2^i) us and the last one takes everything above.
+	 */
+	static class Histogram extends Metric {
+		static final int BUCKETS = 22; // last bucket starts at ~1s
+
+		private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong mCount = new AtomicLong();
+		private final AtomicLong mTotalUs = new AtomicLong();
+		private final AtomicLong mMaxUs = new AtomicLong();
+
+		Histogram(String name) {
+			super(name);
+		}
+
+		/**
+		 * Record the time since startNs, a System.nanoTime() value.
+		 */
+		void recordSince(long startNs) {
+			record((System.nanoTime() - startNs) / 1000);
+		}
+
+		void record(long us) {
+			us = Math.max(us, 0);
+			int bucket = Math.min(64 - Long.numberOfLeadingZeros(us),
+					BUCKETS - 1);
+			mBuckets.incrementAndGet(bucket);
+			mCount.incrementAndGet();
+			mTotalUs.addAndGet(us);
+
+			long max;
+			while (us > (max = mMaxUs.get())) {
+				if (mMaxUs.compareAndSet(max, us)) {
+					break;
+				}
+			}
+		}
+
+		long count() {
+			return mCount.get();
+		}
+
+		/**
+		 * Upper bound, in us, of the bucket holding the given percentile.
+		 */
+		long percentileUs(int percent) {
+			long count = mCount.get();
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = (count * percent + 99) / 100;
+			long seen = 0;
+			for (int i = 0; i < BUCKETS - 1; i++) {
+				seen += mBuckets.get(i);
+				if (seen >= rank) {
+					return 1L << i;
+				}
+			}
+			return mMaxUs.get();
+		}
+
+		@Override
+		String describe() {
+			long count = count();
+			if (count == 0) {
+				return "n=0";
+			}
+			return "n=" + count + " mean=" + mTotalUs.get() / count
+					+ "us p50<" + percentileUs(50) + "us p99<"
+					+ percentileUs(99) + "us max=" + mMaxUs.get() + "us";
+		}
+	}
+
+	private final List<Metric> mMetrics = new ArrayList<Metric>();
+
+	final Counter sensorEvents = counter("sensor.events");
+	final Counter occludedSamples = counter("sensor.occludedSamples");
+	final Counter sensorRegistrations = counter("sensor.registrations");
+	final Counter sensorUnregistrations = counter("sensor.unregistrations");
+	final Counter brightnessRequests = counter("brightness.requests");
+	final Counter settingWrites = counter("brightness.settingWrites");
+	final Counter windowSteps = counter("brightness.windowSteps");
+	final Counter dispatches = counter("data.dispatches");
+	final Counter warmStarts = counter("warmStart.predictions");
+	final Counter warmStartHits = counter("warmStart.hits");
+
+	final Histogram sensorEventTime = histogram("sensor.eventTime");
+	final Histogram sensorEventCpu = histogram("sensor.eventCpu");
+	final Histogram updateBrightnessTime = histogram("service.updateBrightnessTime");
+	final Histogram setBrightnessTime = histogram("data.setBrightnessTime");
+	final Histogram settingWriteTime = histogram("brightness.settingWriteTime");
+	final Histogram dispatchTime = histogram("data.dispatchTime");
+	final Histogram strategyTime = histogram("strategy.time");
+	final Histogram shadowTime = histogram("strategy.shadowTime");
+	final Histogram resumeTime = histogram("ui.resumeTime");
+	final Histogram loadTime = histogram("data.loadTime");
+	final Histogram coldStartTime = histogram("service.coldStartToFirstWrite");
+	final Histogram warmStartCorrectTime = histogram("warmStart.timeToCorrect");
+
+	private Counter counter(String name) {
+		Counter counter = new Counter(name);
+		mMetrics.add(counter);
+		return counter;
+	}
+
+	private Histogram histogram(String name) {
+		Histogram histogram = new Histogram(name);
+		mMetrics.add(histogram);
+		return histogram;
+	}
+
+	List<Metric> getAll() {
+		return Collections.unmodifiableList(mMetrics);
+	}
+
+	void dump(PrintWriter writer) {
+		for (Metric metric : mMetrics) {
+			writer.println(metric.name + ": " + metric.describe());
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Drops lux readings taken while the light sensor is covered, e.g. in a
+ * pocket or face down, as reported by the proximity sensor. Readings only
+ * count again once the sensor has been uncovered for SETTLE_MS, since the
+ * light sensor lags behind.
+ */
+class OcclusionGate {
+	static final long SETTLE_MS = 300;
+	// Like the platform, treat anything closer than this as covered
+	static final float NEAR_DISTANCE_CM = 5.0f;
+
+	private boolean mNear = false;
+	private long mFarSince = Long.MIN_VALUE / 2;
+
+	/**
+	 * Whether a proximity reading means covered, for a sensor with the given
+	 * maximum range (many only ever report 0 or their maximum).
+	 */
+	static boolean isNear(float distance, float maxRange) {
+		return distance < Math.min(maxRange, NEAR_DISTANCE_CM);
+	}
+
+	void setNear(boolean near, long nowMs) {
+		if (near != mNear) {
+			mNear = near;
+			if (!near) {
+				mFarSince = nowMs;
+			}
+		}
+	}
+
+	boolean isNear() {
+		return mNear;
+	}
+
+	/**
+	 * Whether a lux reading taken now should be used.
+	 */
+	boolean accept(long nowMs) {
+		return !mNear && nowMs - mFarSince >= SETTLE_MS;
+	}
+
+	/**
+	 * Forget the proximity state, e.g. after the proximity sensor was off;
+	 * readings are accepted until it reports again.
+	 */
+	void reset() {
+		mNear = false;
+		mFarSince = Long.MIN_VALUE / 2;
+	}
+
+}
@@ -0,0 +1,38 @@
+package org.sgnexus.relativeautobright;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects Data change codes raised on one thread so another thread can
+ * handle them in a single pass, e.g. from one posted runnable.
+ */
+class PendingChanges {
+	private final AtomicInteger mMask = new AtomicInteger();
+
+	/**
+	 * Mark a change as pending; returns true if nothing was pending before,
+	 * meaning the caller should schedule a call to take().
+	 */
+	boolean add(int change) {
+		int bit = Data.changeMask(change);
+
+		while (true) {
+			int mask = mMask.get();
+			if ((mask & bit) != 0) {
+				return false;
+			}
+			if (mMask.compareAndSet(mask, mask | bit)) {
+				return mask == 0;
+			}
+		}
+	}
+
+	/**
+	 * Clear and return the pending changes as a mask of Data.changeMask()
+	 * bits.
+	 */
+	int take() {
+		return mMask.getAndSet(0);
+	}
+
+}
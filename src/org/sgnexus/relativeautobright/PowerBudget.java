@@ -0,0 +1,173 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Rough account of what the service costs (light sensor time, wake-ups,
+ * brightness writes and CPU) plus a controller that keeps wake-ups per hour
+ * under a budget. Over budget it steps up a level, alternately doubling the
+ * sense interval and widening lux hysteresis (fewer brightness changes
+ * means fewer ramp steps); well under budget it steps back down.
+ */
+class PowerBudget {
+	static final long CONTROL_PERIOD_MS = 5 * 60 * 1000;
+	static final int MAX_LEVEL = 6;
+	// Extra hysteresis, in percent, per hysteresis step
+	static final int HYSTERESIS_STEP = 10;
+	// Only relax once comfortably under budget, so the level doesn't flap
+	static private final float RELAX_BELOW = 0.6f;
+	// A period this much longer than planned means nothing ran (screen off)
+	static private final int STALE_PERIODS = 4;
+	static private final float MS_PER_HOUR = 60 * 60 * 1000;
+
+	private int mWakeUpsPerHour;
+	private int mLevel = 0;
+
+	private long mWakeUps = 0;
+	private long mWrites = 0;
+	private long mCpuNs = 0;
+	private long mSensorActiveMs = 0;
+	private long mSensorOnSince = -1;
+
+	private long mPeriodStart = -1;
+	private long mPeriodWakeUps = 0;
+	private float mWakeUpRate = -1; // per hour, smoothed
+
+	/**
+	 * @param wakeUpsPerHour
+	 *            budget, or 0 for none
+	 */
+	PowerBudget(int wakeUpsPerHour) {
+		mWakeUpsPerHour = Math.max(wakeUpsPerHour, 0);
+	}
+
+	/**
+	 * Returns true if that changed the level.
+	 */
+	boolean setBudget(int wakeUpsPerHour) {
+		mWakeUpsPerHour = Math.max(wakeUpsPerHour, 0);
+		return mWakeUpsPerHour == 0 && setLevel(0);
+	}
+
+	void onSensorRegistered(long nowMs) {
+		if (mSensorOnSince < 0) {
+			mSensorOnSince = nowMs;
+		}
+	}
+
+	void onSensorUnregistered(long nowMs) {
+		if (mSensorOnSince >= 0) {
+			mSensorActiveMs += nowMs - mSensorOnSince;
+			mSensorOnSince = -1;
+		}
+	}
+
+	/**
+	 * A timer woke the service, e.g. to resume sensing or step a ramp.
+	 */
+	void onWakeUp() {
+		mWakeUps++;
+		mPeriodWakeUps++;
+	}
+
+	void onWrite() {
+		mWrites++;
+	}
+
+	void onCpu(long ns) {
+		mCpuNs += ns;
+	}
+
+	/**
+	 * Run the controller if a control period has passed; returns true if
+	 * the level changed.
+	 */
+	boolean update(long nowMs) {
+		if (mPeriodStart < 0) {
+			mPeriodStart = nowMs;
+			return false;
+		}
+
+		long elapsed = nowMs - mPeriodStart;
+		if (elapsed < CONTROL_PERIOD_MS) {
+			return false;
+		}
+
+		mPeriodStart = nowMs;
+		long wakeUps = mPeriodWakeUps;
+		mPeriodWakeUps = 0;
+		if (elapsed > CONTROL_PERIOD_MS * STALE_PERIODS) {
+			return false;
+		}
+
+		float rate = wakeUps * MS_PER_HOUR / elapsed;
+		mWakeUpRate = mWakeUpRate < 0 ? rate : (mWakeUpRate + rate) / 2;
+
+		if (mWakeUpsPerHour == 0) {
+			return setLevel(0);
+		} else if (mWakeUpRate > mWakeUpsPerHour) {
+			return setLevel(mLevel + 1);
+		} else if (mWakeUpRate < mWakeUpsPerHour * RELAX_BELOW) {
+			return setLevel(mLevel - 1);
+		}
+		return false;
+	}
+
+	private boolean setLevel(int level) {
+		level = Math.min(Math.max(level, 0), MAX_LEVEL);
+		if (level == mLevel) {
+			return false;
+		}
+		mLevel = level;
+		return true;
+	}
+
+	int getLevel() {
+		return mLevel;
+	}
+
+	/**
+	 * Multiple of the configured sense interval to use: odd levels double
+	 * it.
+	 */
+	int getIntervalScale() {
+		return 1 << ((mLevel + 1) / 2);
+	}
+
+	/**
+	 * Hysteresis, in percent, to add to the lux filter: even levels widen
+	 * it.
+	 */
+	int getExtraHysteresis() {
+		return (mLevel / 2) * HYSTERESIS_STEP;
+	}
+
+	long getSensorActiveMs(long nowMs) {
+		return mSensorActiveMs
+				+ (mSensorOnSince >= 0 ? nowMs - mSensorOnSince : 0);
+	}
+
+	long getWakeUps() {
+		return mWakeUps;
+	}
+
+	long getWrites() {
+		return mWrites;
+	}
+
+	long getCpuNs() {
+		return mCpuNs;
+	}
+
+	float getWakeUpRate() {
+		return Math.max(mWakeUpRate, 0);
+	}
+
+	String describe(long nowMs) {
+		return "budget " + mWakeUpsPerHour + " wake-ups/h, rate "
+				+ Math.round(getWakeUpRate()) + "/h, level " + mLevel
+				+ " (interval x" + getIntervalScale() + ", hysteresis +"
+				+ getExtraHysteresis() + "%); totals: sensor on "
+				+ getSensorActiveMs(nowMs) / 1000 + "s, wake-ups " + mWakeUps
+				+ ", writes " + mWrites + ", cpu " + mCpuNs / 1000000 + "ms";
+	}
+
+}
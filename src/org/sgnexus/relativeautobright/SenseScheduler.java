@@ -0,0 +1,96 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Chooses how long to pause the light sensor after each reading. While
+ * light is steady the pause doubles up to a cap; a large jump in lux, or a
+ * reset (e.g. screen on), snaps it back to the base interval. Works in
+ * log-lux so "steady" means the same thing in a dark room and in daylight.
+ */
+class SenseScheduler {
+	// Changes of ~1.5x in lux snap back to fast sampling
+	static final double SNAP_DELTA = Math.log(1.5);
+	// Deviation of log-lux below which light counts as steady (~10%)
+	static final double STABLE_DEVIATION = 0.1;
+	// Weight of each reading in the running mean and variance
+	static private final double ALPHA = 0.3;
+
+	private long mBaseIntervalMs;
+	private final int mMaxBackoff;
+
+	private long mIntervalMs;
+	private double mMean;
+	private double mVariance;
+	private boolean mPrimed = false;
+
+	private long mWakeUps = 0;
+	private long mSnapBacks = 0;
+
+	/**
+	 * @param maxBackoff
+	 *            cap on the interval as a multiple of the base interval
+	 */
+	SenseScheduler(long baseIntervalMs, int maxBackoff) {
+		mBaseIntervalMs = baseIntervalMs;
+		mMaxBackoff = Math.max(maxBackoff, 1);
+		mIntervalMs = baseIntervalMs;
+	}
+
+	void setBaseInterval(long baseIntervalMs) {
+		mBaseIntervalMs = baseIntervalMs;
+		mIntervalMs = Math.min(Math.max(mIntervalMs, baseIntervalMs),
+				baseIntervalMs * mMaxBackoff);
+	}
+
+	/**
+	 * Record a reading and return how long to wait before the next one.
+	 */
+	long nextInterval(float lux) {
+		mWakeUps++;
+		double value = Math.log(Math.max(lux, 0) + 1);
+
+		if (!mPrimed) {
+			mMean = value;
+			mVariance = 0;
+			mPrimed = true;
+			mIntervalMs = mBaseIntervalMs;
+			return mIntervalMs;
+		}
+
+		double delta = value - mMean;
+		mMean += ALPHA * delta;
+		mVariance = (1 - ALPHA) * (mVariance + ALPHA * delta * delta);
+
+		if (Math.abs(delta) > SNAP_DELTA) {
+			if (mIntervalMs != mBaseIntervalMs) {
+				mSnapBacks++;
+			}
+			mIntervalMs = mBaseIntervalMs;
+		} else if (Math.sqrt(mVariance) < STABLE_DEVIATION) {
+			mIntervalMs = Math.min(mIntervalMs * 2, mBaseIntervalMs
+					* mMaxBackoff);
+		}
+
+		return mIntervalMs;
+	}
+
+	/**
+	 * Forget history and go back to the base interval.
+	 */
+	void reset() {
+		mPrimed = false;
+		mIntervalMs = mBaseIntervalMs;
+	}
+
+	long getInterval() {
+		return mIntervalMs;
+	}
+
+	long getWakeUps() {
+		return mWakeUps;
+	}
+
+	long getSnapBacks() {
+		return mSnapBacks;
+	}
+
+}
@@ -1,22 +1,26 @@
 package org.sgnexus.relativeautobright;
 
-import java.util.Observable;
-import java.util.Observer;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
 
 import android.app.Activity;
-import android.app.ActivityManager;
-import android.app.ActivityManager.RunningServiceInfo;
 import android.content.Context;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
+import android.preference.PreferenceScreen;
 import android.preference.SwitchPreference;
 import android.util.Log;
+import android.view.Choreographer;
 import android.widget.Toast;
 
-public class SettingsFragment extends PreferenceFragment implements Observer {
+public class SettingsFragment extends PreferenceFragment implements
+		Data.OnDataChangedListener {
 	final private String mTag = this.getClass().getSimpleName();
 
 	private SwitchPreference mServiceEnabledPref;
@@ -26,27 +30,103 @@ public class SettingsFragment extends PreferenceFragment implements Observer {
 	private Toast mToast;
 	private Data mData;
 	private boolean isToastEnabled = true;
+	// Set while the service runs and we are in front
+	private WindowBrightnessSink mWindowSink;
+
+	// Changes may arrive on the service's sensor thread; they are collected
+	// here and handled in one pass on the main thread, at most once a frame
+	final private PendingChanges mPendingChanges = new PendingChanges();
+	final private StatusSnapshot.Values mStatus = new StatusSnapshot.Values();
+	private Choreographer mChoreographer;
+
+	final private Choreographer.FrameCallback mPendingChangesCallback = new Choreographer.FrameCallback() {
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			handleDataChanged(mPendingChanges.take());
+		}
+	};
+
+	// Titles as currently shown, and brightness titles built so far
+	private float mShownLux = Float.NaN;
+	private int mShownBrightness = -1;
+	final private String[] mBrightnessTitles = new String[Data.MAX_BRIGHTNESS + 1];
+
+	final private static String EXPORT_TRACE = "exportTrace";
+	final private static String EXPORT_TRACE_FILE = "trace.csv";
+	final private static String METRICS = "metrics";
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		addPreferencesFromResource(R.xml.preferences);
+		mChoreographer = Choreographer.getInstance();
 
 		mServiceEnabledPref = (SwitchPreference) findPreference(Data.SERVICE_ENABLED);
+		// Only the user's toggle starts or stops the service; changes seen
+		// through Data just bring the switch up to date
+		mServiceEnabledPref
+				.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+					@Override
+					public boolean onPreferenceChange(Preference preference,
+							Object newValue) {
+						setServiceEnabled((Boolean) newValue);
+						return true;
+					}
+				});
 		mLuxPref = (Preference) findPreference(Data.LUX);
 		mBrightnessPref = (Preference) findPreference(Data.BRIGHTNESS);
+
+		findPreference(EXPORT_TRACE).setOnPreferenceClickListener(
+				new Preference.OnPreferenceClickListener() {
+					@Override
+					public boolean onPreferenceClick(Preference preference) {
+						exportTrace();
+						return true;
+					}
+				});
+
+		final PreferenceScreen metricsScreen = (PreferenceScreen) findPreference(METRICS);
+		for (Metrics.Metric metric : mData.getMetrics().getAll()) {
+			Preference pref = new Preference(getActivity());
+			pref.setPersistent(false);
+			pref.setSelectable(false);
+			pref.setTitle(metric.name);
+			metricsScreen.addPreference(pref);
+		}
+		metricsScreen
+				.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+					@Override
+					public boolean onPreferenceClick(Preference preference) {
+						updateMetrics(metricsScreen);
+						return false;
+					}
+				});
+	}
+
+	private void updateMetrics(PreferenceScreen screen) {
+		List<Metrics.Metric> metrics = mData.getMetrics().getAll();
+		for (int i = 0; i < metrics.size(); i++) {
+			screen.getPreference(i).setSummary(metrics.get(i).describe());
+		}
 	}
 
 	@Override
 	public void onResume() {
 		Log.d(mTag, "on resume");
+		long start = System.nanoTime();
 		super.onResume();
 
 		if (mData != null) {
 			isToastEnabled = false;
-			mData.addObserver(this);
-			update(mData, null);
+			// TODO subscribe to CHANGE_RELATIVE_LEVEL to update the seekbar
+			mData.addListener(this,
+					Data.changeMask(Data.CHANGE_SERVICE_ENABLED)
+							| Data.changeMask(Data.CHANGE_LUX)
+							| Data.changeMask(Data.CHANGE_BRIGHTNESS));
+			updateAll();
+			updateWindowSink(mData.getServiceEnabled());
 			isToastEnabled = true;
+			mData.getMetrics().resumeTime.recordSince(start);
 		}
 	}
 
@@ -54,8 +134,11 @@ public class SettingsFragment extends PreferenceFragment implements Observer {
 	public void onPause() {
 		Log.d(mTag, "on pause");
 		if (mData != null) {
-			mData.deleteObserver(this);
+			mData.removeListener(this);
+			updateWindowSink(false);
 		}
+		mChoreographer.removeFrameCallback(mPendingChangesCallback);
+		mPendingChanges.take();
 		super.onPause();
 	}
 
@@ -68,6 +151,21 @@ public class SettingsFragment extends PreferenceFragment implements Observer {
 		mData = Data.getInstance(mContext);
 	}
 
+	/**
+	 * Let the service ramp this window's brightness directly while it runs;
+	 * otherwise the window follows the system setting.
+	 */
+	private void updateWindowSink(boolean enabled) {
+		if (enabled && mWindowSink == null) {
+			mWindowSink = new WindowBrightnessSink(getActivity().getWindow());
+			mData.setWindowSink(mWindowSink);
+		} else if (!enabled && mWindowSink != null) {
+			mData.setWindowSink(null);
+			mWindowSink.release();
+			mWindowSink = null;
+		}
+	}
+
 	private void setServiceEnabled(boolean enabled) {
 		if (enabled) {
 			showToast("Starting service");
@@ -90,20 +188,50 @@ public class SettingsFragment extends PreferenceFragment implements Observer {
 		}
 	}
 
-	private boolean isServiceRunning() {
-		ActivityManager manager = (ActivityManager) mContext
-				.getSystemService(Context.ACTIVITY_SERVICE);
-		for (RunningServiceInfo service : manager
-				.getRunningServices(Integer.MAX_VALUE)) {
-			if (MainService.class.getName().equals(
-					service.service.getClassName())) {
-				return true;
-			}
+	private void exportTrace() {
+		final File dir = mContext.getExternalFilesDir(null);
+		if (dir == null) {
+			showToast("Storage not available");
+			return;
 		}
-		return false;
+
+		new AsyncTask<Void, Void, String>() {
+			@Override
+			protected String doInBackground(Void... params) {
+				File file = new File(dir, EXPORT_TRACE_FILE);
+				FileWriter writer = null;
+
+				try {
+					writer = new FileWriter(file);
+					mData.getTraceRecorder().exportCsv(writer);
+					return "Trace saved to " + file.getPath();
+				} catch (IOException e) {
+					Log.w(mTag, "trace export failed", e);
+					return "Could not export trace";
+				} finally {
+					if (writer != null) {
+						try {
+							writer.close();
+						} catch (IOException e) {
+							// Nothing useful to do
+						}
+					}
+				}
+			}
+
+			@Override
+			protected void onPostExecute(String result) {
+				showToast(result);
+			}
+		}.execute();
 	}
 
 	private void updateLux(float lux) {
+		if (Float.compare(lux, mShownLux) == 0) {
+			return;
+		}
+		mShownLux = lux;
+
 		if (Float.compare(lux, -1.0f) == 0) {
 			mLuxPref.setTitle("Lux : n/a");
 		} else {
@@ -112,34 +240,59 @@ public class SettingsFragment extends PreferenceFragment implements Observer {
 	}
 
 	private void updateBrightness(int brightness) {
+		if (brightness == mShownBrightness) {
+			return;
+		}
+		mShownBrightness = brightness;
+
 		// int brightnessPercentage = (mData.getBrightness() * 100 /
 		// Data.MAX_BRIGHTNESS);
-		mBrightnessPref.setTitle("Brightness : " + brightness);
+		String title = mBrightnessTitles[brightness];
+		if (title == null) {
+			title = "Brightness : " + brightness;
+			mBrightnessTitles[brightness] = title;
+		}
+		mBrightnessPref.setTitle(title);
+	}
+
+	private void updateServiceEnabled(boolean enabled) {
+		if (enabled != mServiceEnabledPref.isChecked()) {
+			mServiceEnabledPref.setChecked(enabled);
+		}
+	}
+
+	private void updateAll() {
+		Log.d(mTag, "update UI fragment: all fields");
+		mData.getStatus().read(mStatus);
+		updateLux(mStatus.lux);
+		updateBrightness(mStatus.brightness);
+		if (mData.isLoaded()) {
+			updateServiceEnabled(mData.getServiceEnabled());
+		}
 	}
 
 	@Override
-	public void update(Observable observable, Object data) {
-		if (data == null) {
-			Log.d(mTag, "update UI fragment: all fields");
-			updateLux(mData.getLux());
-			updateBrightness(mData.getBrightness());
-			boolean isServiceRunning = isServiceRunning();
-			if (isServiceRunning != mServiceEnabledPref.isChecked()) {
-				mServiceEnabledPref.setChecked(isServiceRunning);
-			}
-		} else {
-			String key = (String) data;
-			Log.d(mTag, "update fragment: " + key);
-
-			if (Data.SERVICE_ENABLED.equals(key)) {
-				setServiceEnabled(mData.getServiceEnabled());
-			} else if (Data.RELATIVE_LEVEL.equals(key)) {
-				// TODO update the seekbar
-			} else if (Data.LUX.equals(key)) {
-				updateLux(mData.getLux());
-			} else if (Data.BRIGHTNESS.equals(key)) {
-				updateBrightness(mData.getBrightness());
-			}
+	public void onDataChanged(int change) {
+		if (mPendingChanges.add(change)) {
+			mChoreographer.postFrameCallback(mPendingChangesCallback);
+		}
+	}
+
+	private void handleDataChanged(int changes) {
+		Log.d(mTag, "update fragment: " + Integer.toBinaryString(changes));
+
+		if ((changes & Data.changeMask(Data.CHANGE_SERVICE_ENABLED)) != 0) {
+			boolean enabled = mData.getServiceEnabled();
+			updateServiceEnabled(enabled);
+			updateWindowSink(enabled);
+		}
+
+		mData.getStatus().read(mStatus);
+		if ((changes & Data.changeMask(Data.CHANGE_LUX)) != 0) {
+			updateLux(mStatus.lux);
+		}
+		if ((changes & Data.changeMask(Data.CHANGE_BRIGHTNESS)) != 0) {
+			updateBrightness(mStatus.brightness);
 		}
 	}
 
@@ -0,0 +1,60 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Runs a candidate strategy alongside the live one without applying its
+ * output, recording how far apart the two are and what each costs. Lets a
+ * new curve be checked on real readings before switching to it.
+ */
+class ShadowStrategy extends AutoBrightnessStrategy {
+	private final AutoBrightnessStrategy mStrategy;
+	private final AutoBrightnessStrategy mShadow;
+	private final Metrics mMetrics;
+
+	private long mEvaluations = 0;
+	private long mDivergences = 0;
+	private long mTotalDivergence = 0;
+	private int mMaxDivergence = 0;
+	private int mLastDivergence = 0;
+
+	ShadowStrategy(AutoBrightnessStrategy strategy,
+			AutoBrightnessStrategy shadow, Metrics metrics) {
+		mStrategy = strategy;
+		mShadow = shadow;
+		mMetrics = metrics;
+	}
+
+	@Override
+	int computeBrightness(float lux, int relativeLevel) {
+		int brightness = mStrategy.computeBrightness(lux, relativeLevel);
+		// The caller times the whole call, shadow included, as strategyTime
+		long shadowStart = System.nanoTime();
+		int shadow = mShadow.computeBrightness(lux, relativeLevel);
+		mMetrics.shadowTime.recordSince(shadowStart);
+
+		mEvaluations++;
+		mLastDivergence = shadow - brightness;
+		if (mLastDivergence != 0) {
+			int divergence = Math.abs(mLastDivergence);
+			mDivergences++;
+			mTotalDivergence += divergence;
+			mMaxDivergence = Math.max(mMaxDivergence, divergence);
+		}
+		return brightness;
+	}
+
+	/**
+	 * Shadow minus live brightness for the latest reading.
+	 */
+	int getLastDivergence() {
+		return mLastDivergence;
+	}
+
+	@Override
+	public String toString() {
+		return "shadow differed on " + mDivergences + " of " + mEvaluations
+				+ " readings, mean "
+				+ (mDivergences == 0 ? 0 : mTotalDivergence / mDivergences)
+				+ " max " + mMaxDivergence;
+	}
+
+}
@@ -0,0 +1,158 @@
+package org.sgnexus.relativeautobright;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+/**
+ * Small binary file for strategy state. The file is a fixed header (magic,
+ * version, payload length, CRC32 of the payload) followed by the payload.
+ * Reads map the file; writes go to a temporary file that is renamed over the
+ * old one, so a crash never leaves a half-written store behind.
+ */
+class StateStore {
+	final private String mTag = this.getClass().getSimpleName();
+
+	static private final int MAGIC = 0x52414253; // "RABS"
+	static final int HEADER_SIZE = 16;
+
+	// One thread for all stores so writes to the same file stay ordered
+	static private final Executor WRITER = Executors.newSingleThreadExecutor();
+
+	private final File mFile;
+	private final File mTempFile;
+	private final int mVersion;
+
+	StateStore(File file, int version) {
+		mFile = file;
+		mTempFile = new File(file.getPath() + ".tmp");
+		mVersion = version;
+	}
+
+	/**
+	 * Map the store and return its payload, or null if the file is missing,
+	 * from another version, or corrupt. Corrupt files are deleted.
+	 */
+	ByteBuffer load() {
+		if (!mFile.exists()) {
+			return null;
+		}
+
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(mFile, "r");
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException("truncated header");
+			}
+
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.BIG_ENDIAN);
+
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("bad magic");
+			}
+			if (buffer.getInt() != mVersion) {
+				Log.d(mTag, "ignoring old version of " + mFile.getName());
+				return null;
+			}
+
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length < 0 || length != size - HEADER_SIZE) {
+				throw new IOException("bad length");
+			}
+
+			ByteBuffer payload = buffer.slice();
+			if (checksum(payload) != checksum) {
+				throw new IOException("bad checksum");
+			}
+
+			return payload.asReadOnlyBuffer();
+		} catch (IOException e) {
+			Log.w(mTag, "discarding " + mFile.getName(), e);
+			mFile.delete();
+			return null;
+		} finally {
+			closeQuietly(file);
+		}
+	}
+
+	/**
+	 * Replace the store with the given payload.
+	 */
+	void save(byte[] payload) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(mVersion);
+		header.putInt(payload.length);
+		header.putInt(checksum(ByteBuffer.wrap(payload)));
+		header.flip();
+
+		RandomAccessFile file = new RandomAccessFile(mTempFile, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			channel.truncate(0);
+			channel.write(new ByteBuffer[] { header, ByteBuffer.wrap(payload) });
+			channel.force(true);
+		} finally {
+			closeQuietly(file);
+		}
+
+		if (!mTempFile.renameTo(mFile)) {
+			throw new IOException("could not replace " + mFile.getName());
+		}
+	}
+
+	/**
+	 * save() on a background thread, logging failures.
+	 */
+	void saveAsync(final byte[] payload) {
+		WRITER.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					save(payload);
+				} catch (IOException e) {
+					Log.w(mTag, "could not save " + mFile.getName(), e);
+				}
+			}
+		});
+	}
+
+	static private int checksum(ByteBuffer buffer) {
+		CRC32 crc = new CRC32();
+		ByteBuffer data = buffer.duplicate();
+		byte[] chunk = new byte[Math.min(data.remaining(), 4096)];
+
+		while (data.hasRemaining()) {
+			int count = Math.min(data.remaining(), chunk.length);
+			data.get(chunk, 0, count);
+			crc.update(chunk, 0, count);
+		}
+
+		return (int) crc.getValue();
+	}
+
+	static private void closeQuietly(RandomAccessFile file) {
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				// Nothing useful to do
+			}
+		}
+	}
+
+}
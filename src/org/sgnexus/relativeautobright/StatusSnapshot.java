@@ -0,0 +1,42 @@
+package org.sgnexus.relativeautobright;
+
+/**
+ * Latest lux, brightness and relative level, published together so the UI
+ * never sees a lux from one reading next to the brightness of another.
+ * Writers are serialized; readers never block and simply retry if a write
+ * happened while they were copying (a sequence lock).
+ */
+class StatusSnapshot {
+	private volatile int mSequence = 0;
+	private float mLux = -1.0f;
+	private int mBrightness;
+	private int mRelativeLevel;
+
+	/**
+	 * Reusable holder for read().
+	 */
+	static class Values {
+		float lux;
+		int brightness;
+		int relativeLevel;
+	}
+
+	synchronized void publish(float lux, int brightness, int relativeLevel) {
+		mSequence++; // odd while writing
+		mLux = lux;
+		mBrightness = brightness;
+		mRelativeLevel = relativeLevel;
+		mSequence++;
+	}
+
+	void read(Values out) {
+		int sequence;
+		do {
+			sequence = mSequence;
+			out.lux = mLux;
+			out.brightness = mBrightness;
+			out.relativeLevel = mRelativeLevel;
+		} while ((sequence & 1) != 0 || sequence != mSequence);
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.sgnexus.relativeautobright;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Strategies by preference value. The first one registered is the fallback
+ * for unknown names.
+ */
+class StrategyRegistry {
+	static final String NONE = "none";
+
+	private final Map<String, AutoBrightnessStrategy> mStrategies = new LinkedHashMap<String, AutoBrightnessStrategy>();
+	private AutoBrightnessStrategy mFallback;
+
+	void register(String name, AutoBrightnessStrategy strategy) {
+		if (mFallback == null) {
+			mFallback = strategy;
+		}
+		mStrategies.put(name, strategy);
+	}
+
+	AutoBrightnessStrategy get(String name) {
+		AutoBrightnessStrategy strategy = mStrategies.get(name);
+		return strategy != null ? strategy : mFallback;
+	}
+
+	/**
+	 * The strategy to run: the named one, or if shadowName names a different
+	 * strategy, the named one shadowed by it.
+	 */
+	AutoBrightnessStrategy select(String name, String shadowName,
+			Metrics metrics) {
+		AutoBrightnessStrategy strategy = get(name);
+		AutoBrightnessStrategy shadow = mStrategies.get(shadowName);
+
+		if (shadow == null || shadow == strategy) {
+			return strategy;
+		}
+		return new ShadowStrategy(strategy, shadow, metrics);
+	}
+
+}
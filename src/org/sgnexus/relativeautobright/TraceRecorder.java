@@ -0,0 +1,227 @@
+package org.sgnexus.relativeautobright;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.util.Log;
+
+/**
+ * Always-on log of what the service decided: (time, lux, relative level,
+ * brightness, written) per evaluation. Records are gathered in primitive
+ * arrays and copied a block at a time into one of two memory-mapped files;
+ * when one file fills up, recording rolls over to the other. A new process
+ * carries on after the newest record left by the last one.
+ */
+class TraceRecorder {
+	final private String mTag = this.getClass().getSimpleName();
+
+	// time (8) + lux (4) + brightness (2) + level (1) + written (1)
+	static final int RECORD_SIZE = 16;
+	static final int BLOCK_RECORDS = 64;
+	static final int FILE_RECORDS = 16384;
+	static private final String FILE_PREFIX = "trace-";
+	static private final String FILE_SUFFIX = ".bin";
+
+	private final File mDir;
+
+	private final long[] mTime = new long[BLOCK_RECORDS];
+	private final float[] mLux = new float[BLOCK_RECORDS];
+	private final short[] mBrightness = new short[BLOCK_RECORDS];
+	private final byte[] mLevel = new byte[BLOCK_RECORDS];
+	private final boolean[] mWritten = new boolean[BLOCK_RECORDS];
+	private int mCount = 0;
+
+	private int mFileIndex = -1;
+	private MappedByteBuffer mMapped;
+
+	TraceRecorder(File dir) {
+		mDir = dir;
+	}
+
+	void record(long timeMs, float lux, int relativeLevel, int brightness,
+			boolean written) {
+		int i = mCount;
+		mTime[i] = timeMs;
+		mLux[i] = lux;
+		mLevel[i] = (byte) relativeLevel;
+		mBrightness[i] = (short) brightness;
+		mWritten[i] = written;
+
+		if (++mCount == BLOCK_RECORDS) {
+			flush();
+		}
+	}
+
+	/**
+	 * Copy buffered records to the mapped file.
+	 */
+	void flush() {
+		for (int i = 0; i < mCount; i++) {
+			if (mMapped == null || !mMapped.hasRemaining()) {
+				if (!rollOver()) {
+					break;
+				}
+			}
+
+			mMapped.putLong(mTime[i]);
+			mMapped.putFloat(mLux[i]);
+			mMapped.putShort(mBrightness[i]);
+			mMapped.put(mLevel[i]);
+			mMapped.put((byte) (mWritten[i] ? 1 : 0));
+		}
+		mCount = 0;
+	}
+
+	private boolean rollOver() {
+		if (mFileIndex < 0) {
+			// Carry on in the newer file, or in the older one if that is full
+			int newest = firstTime(traceFile(1)) > firstTime(traceFile(0)) ? 1 : 0;
+			if (!open(newest, false)) {
+				return false;
+			} else if (mMapped.hasRemaining()) {
+				return true;
+			}
+		}
+		return open((mFileIndex + 1) % 2, true);
+	}
+
+	/**
+	 * Map a trace file for writing, after its last record or, if clear is
+	 * set, from the start.
+	 */
+	private boolean open(int index, boolean clear) {
+		long size = (long) FILE_RECORDS * RECORD_SIZE;
+		RandomAccessFile file = null;
+
+		try {
+			file = new RandomAccessFile(traceFile(index), "rw");
+			if (clear || file.length() != size) {
+				// Zeroed so readers can tell where the records stop
+				file.setLength(0);
+				file.setLength(size);
+			}
+			mMapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+					0, size);
+			mMapped.position(recordCount(mMapped) * RECORD_SIZE);
+			mFileIndex = index;
+			return true;
+		} catch (IOException e) {
+			Log.w(mTag, "could not open trace file", e);
+			mMapped = null;
+			return false;
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					// Mapping stays valid after close
+				}
+			}
+		}
+	}
+
+	/**
+	 * Number of records in a mapped trace file. Records fill it from the
+	 * start and never have time 0, so search for the first zero one.
+	 */
+	static int recordCount(ByteBuffer buffer) {
+		int low = 0;
+		int high = buffer.capacity() / RECORD_SIZE;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (buffer.getLong(middle * RECORD_SIZE) != 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Time of the first record in a trace file, or 0 if it has none.
+	 */
+	static private long firstTime(File traceFile) {
+		if (traceFile.length() < RECORD_SIZE) {
+			return 0;
+		}
+
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(traceFile, "r");
+			return file.readLong();
+		} catch (IOException e) {
+			return 0;
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					// Nothing useful to do
+				}
+			}
+		}
+	}
+
+	private File traceFile(int index) {
+		return new File(mDir, FILE_PREFIX + index + FILE_SUFFIX);
+	}
+
+	/**
+	 * Write all flushed records, oldest first, as CSV. Records still in the
+	 * current block are not included.
+	 */
+	void exportCsv(Writer writer) throws IOException {
+		PrintWriter out = new PrintWriter(writer);
+		out.println("timeMs,lux,relativeLevel,brightness,written");
+
+		// The file started later holds the newer records
+		int newest = firstTime(traceFile(1)) > firstTime(traceFile(0)) ? 1 : 0;
+		exportCsv(traceFile((newest + 1) % 2), out);
+		exportCsv(traceFile(newest), out);
+		out.flush();
+	}
+
+	private void exportCsv(File traceFile, PrintWriter out) throws IOException {
+		if (!traceFile.exists()) {
+			return;
+		}
+
+		RandomAccessFile file = new RandomAccessFile(traceFile, "r");
+		try {
+			ByteBuffer buffer = file.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, file.length());
+
+			while (buffer.remaining() >= RECORD_SIZE) {
+				long time = buffer.getLong();
+				float lux = buffer.getFloat();
+				int brightness = buffer.getShort();
+				int level = buffer.get();
+				boolean written = buffer.get() != 0;
+
+				if (time == 0) {
+					break;
+				}
+				out.print(time);
+				out.print(',');
+				out.print(lux);
+				out.print(',');
+				out.print(level);
+				out.print(',');
+				out.print(brightness);
+				out.print(',');
+				out.println(written ? 1 : 0);
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+}
@@ -0,0 +1,367 @@
+package org.sgnexus.relativeautobright;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs lux traces through BrightnessPipeline, the code MainService runs,
+ * on a simulated clock and without any Android classes, so strategies can
+ * be compared on a desktop JVM:
+ *
+ * <pre>
+ * java -cp bin/classes org.sgnexus.relativeautobright.TraceReplayer trace.csv
+ * </pre>
+ */
+class TraceReplayer {
+
+	/**
+	 * Creates the strategy for one replay; called once per trace so it
+	 * never needs to be thread safe.
+	 */
+	interface Setup {
+		AutoBrightnessStrategy createStrategy();
+	}
+
+	static class Result {
+		String trace;
+		long simulatedMs;
+		long elapsedNs;
+		int wakeUps;
+		int snapBacks;
+		int rampSteps;
+		int windowSteps;
+		int brightnessWrites;
+		int maxJump;
+		int occluded;
+		int budgetLevel;
+		long maxSettleMs;
+		long totalSettleMs;
+		int settles;
+		// Against the trace's labels, if it has any
+		long totalError;
+		int errorSamples;
+
+		long meanSettleMs() {
+			return settles == 0 ? 0 : totalSettleMs / settles;
+		}
+
+		float meanError() {
+			return errorSamples == 0 ? 0 : (float) totalError / errorSamples;
+		}
+
+		@Override
+		public String toString() {
+			return trace + ": wakeUps=" + wakeUps + " snapBacks=" + snapBacks
+					+ " rampSteps=" + rampSteps
+					+ " windowSteps=" + windowSteps + " occluded=" + occluded
+					+ " writes=" + brightnessWrites
+					+ " budgetLevel=" + budgetLevel + " maxJump=" + maxJump
+					+ " settleMs(mean/max)=" + meanSettleMs() + "/"
+					+ maxSettleMs + " meanError=" + meanError() + " speedup="
+					+ (elapsedNs == 0 ? 0 : simulatedMs * 1000000 / elapsedNs)
+					+ "x";
+		}
+	}
+
+	private final Setup mSetup;
+	private final int mRelativeLevel;
+	private final long mSenseIntervalMs;
+	private final long mRampDurationMs;
+	private int mWakeUpBudget = 0;
+	private boolean mWindowInFront = false;
+	// Same defaults as the preferences
+	private int mMedianWindow = 3;
+	private int mSmoothing = 50;
+	private int mHysteresis = 10;
+
+	TraceReplayer(Setup setup, int relativeLevel, long senseIntervalMs,
+			long rampDurationMs) {
+		mSetup = setup;
+		mRelativeLevel = relativeLevel;
+		mSenseIntervalMs = Math.max(senseIntervalMs, 1);
+		mRampDurationMs = rampDurationMs;
+	}
+
+	/**
+	 * Lux filter settings, as the lux filter preferences.
+	 */
+	void setLuxFilter(int medianWindow, int smoothingPercent,
+			int hysteresisPercent) {
+		mMedianWindow = medianWindow;
+		mSmoothing = smoothingPercent;
+		mHysteresis = hysteresisPercent;
+	}
+
+	/**
+	 * Run a PowerBudget controller with this many wake-ups (sense readings
+	 * plus ramp steps) per hour, as the service does; 0 for none.
+	 */
+	void setWakeUpBudget(int wakeUpsPerHour) {
+		mWakeUpBudget = wakeUpsPerHour;
+	}
+
+	/**
+	 * Replay as if our window were in front the whole time: ramp steps go
+	 * to it and writes only catch up every
+	 * Data.BRIGHTNESS_RECONCILE_INTERVAL, as in the service.
+	 */
+	void setWindowInFront(boolean inFront) {
+		mWindowInFront = inFront;
+	}
+
+	/**
+	 * Replay one trace in pause/resume sensing mode: readings spaced by a
+	 * SenseScheduler from the sense interval, as in the service, with ramp
+	 * steps in between.
+	 */
+	Result replay(LuxTrace trace) {
+		Replay replay = new Replay(trace);
+		long startNs = System.nanoTime();
+		replay.run();
+		replay.result.elapsedNs = System.nanoTime() - startNs;
+		return replay.result;
+	}
+
+	/**
+	 * Replay traces in parallel, returning results in the same order.
+	 */
+	List<Result> replayAll(List<LuxTrace> traces, int threads)
+			throws InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>();
+			for (final LuxTrace trace : traces) {
+				futures.add(executor.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						return replay(trace);
+					}
+				}));
+			}
+
+			List<Result> results = new ArrayList<Result>();
+			for (Future<Result> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private class Replay implements BrightnessPipeline.Host {
+		final LuxTrace trace;
+		final Result result = new Result();
+		final Metrics metrics = new Metrics();
+		final MemoryBrightnessSink window = mWindowInFront
+				? new MemoryBrightnessSink() : null;
+		final BrightnessPipeline pipeline;
+
+		long now;
+		long nextStep = Long.MAX_VALUE;
+		int written = -1;
+		int target = -1;
+		long targetTime;
+		boolean settling = false;
+
+		Replay(LuxTrace trace) {
+			this.trace = trace;
+			result.trace = trace.name;
+			result.simulatedMs = trace.duration();
+			// Never opened, so the warm start state only lives in memory
+			pipeline = new BrightnessPipeline(this, metrics, new WarmStart(
+					null), mSetup.createStrategy());
+			pipeline.setLevel(mRelativeLevel, mRelativeLevel);
+			pipeline.setSenseInterval(mSenseIntervalMs);
+			pipeline.setRampDuration(mRampDurationMs);
+			pipeline.setLuxFilter(mMedianWindow, mSmoothing, mHysteresis);
+			pipeline.setWakeUpBudget(mWakeUpBudget);
+		}
+
+		void run() {
+			if (trace.size() == 0) {
+				return;
+			}
+
+			long end = trace.time[trace.size() - 1];
+			long nextWake = trace.time[0];
+			int index = 0;
+
+			while (nextWake <= end || nextStep <= end) {
+				if (nextStep < nextWake) {
+					now = nextStep;
+					nextStep = Long.MAX_VALUE;
+					result.rampSteps++;
+					pipeline.stepRamp();
+					continue;
+				}
+
+				now = nextWake;
+				result.wakeUps++;
+				pipeline.onWakeUp();
+				index = trace.indexAt(now, index);
+				if (trace.near != null) {
+					pipeline.setNear(trace.near[index]);
+				}
+				nextWake = now + pipeline.onReading(trace.lux[index]);
+				updateTarget();
+
+				if (trace.label != null) {
+					result.totalError += Math.abs(target - trace.label[index]);
+					result.errorSamples++;
+				}
+			}
+			result.snapBacks = (int) pipeline.getScheduler().getSnapBacks();
+			result.occluded = (int) metrics.occludedSamples.get();
+			result.budgetLevel = pipeline.getPowerBudget().getLevel();
+			if (window != null) {
+				result.windowSteps = window.getWrites();
+			}
+		}
+
+		/**
+		 * Start timing a settle when the pipeline heads somewhere new.
+		 */
+		void updateTarget() {
+			int newTarget = pipeline.getTarget();
+			if (newTarget != target) {
+				target = newTarget;
+				targetTime = now;
+				settling = true;
+			}
+			if (settling && written == target) {
+				long settle = now - targetTime;
+				result.maxSettleMs = Math.max(result.maxSettleMs, settle);
+				result.totalSettleMs += settle;
+				result.settles++;
+				settling = false;
+			}
+		}
+
+		@Override
+		public long uptimeMillis() {
+			return now;
+		}
+
+		@Override
+		public long currentTimeMillis() {
+			return now;
+		}
+
+		@Override
+		public void publishLux(float lux) {
+		}
+
+		@Override
+		public boolean writeBrightness(int brightness) {
+			if (written >= 0) {
+				result.maxJump = Math.max(result.maxJump,
+						Math.abs(brightness - written));
+			}
+			written = brightness;
+			result.brightnessWrites++;
+			updateTarget();
+			return true;
+		}
+
+		@Override
+		public BrightnessSink getWindowSink() {
+			return window;
+		}
+
+		@Override
+		public void scheduleRampStep(long delayMs) {
+			nextStep = now + delayMs;
+		}
+
+		@Override
+		public void cancelRampStep() {
+			nextStep = Long.MAX_VALUE;
+		}
+
+		@Override
+		public void onPowerBudgetChanged() {
+		}
+
+		@Override
+		public void record(float lux, int level, int brightness,
+				boolean written) {
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		// Same defaults as the preferences
+		int level = 50;
+		long senseIntervalMs = 5000;
+		long rampMs = 500;
+		int labelColumn = -1;
+		int proximityColumn = -1;
+		int budget = 0;
+		boolean windowInFront = false;
+		List<LuxTrace> traces = new ArrayList<LuxTrace>();
+
+		for (int i = 0; i < args.length; i++) {
+			if ("-level".equals(args[i])) {
+				level = Integer.parseInt(args[++i]);
+			} else if ("-interval".equals(args[i])) {
+				senseIntervalMs = Long.parseLong(args[++i]);
+			} else if ("-ramp".equals(args[i])) {
+				rampMs = Long.parseLong(args[++i]);
+			} else if ("-labels".equals(args[i])) {
+				labelColumn = Integer.parseInt(args[++i]);
+			} else if ("-proximity".equals(args[i])) {
+				proximityColumn = Integer.parseInt(args[++i]);
+			} else if ("-budget".equals(args[i])) {
+				budget = Integer.parseInt(args[++i]);
+			} else if ("-window".equals(args[i])) {
+				windowInFront = true;
+			} else {
+				traces.add(readTrace(new File(args[i]), labelColumn,
+						proximityColumn));
+			}
+		}
+
+		if (traces.isEmpty()) {
+			System.err.println("usage: TraceReplayer [-level n] "
+					+ "[-interval ms] [-ramp ms] [-labels column] "
+					+ "[-proximity column] [-budget wakeUpsPerHour] "
+					+ "[-window] trace.csv|trace-N.bin...");
+			System.exit(1);
+		}
+
+		TraceReplayer replayer = new TraceReplayer(new Setup() {
+			@Override
+			public AutoBrightnessStrategy createStrategy() {
+				return new LookupTableStrategy(new DefaultStrategy());
+			}
+		}, level, senseIntervalMs, rampMs);
+		replayer.setWakeUpBudget(budget);
+		replayer.setWindowInFront(windowInFront);
+
+		for (Result result : replayer.replayAll(traces, Runtime.getRuntime()
+				.availableProcessors())) {
+			System.out.println(result);
+		}
+	}
+
+	static LuxTrace readTrace(File file, int labelColumn, int proximityColumn)
+			throws IOException {
+		return readTrace(file, labelColumn, proximityColumn, -1);
+	}
+
+	static LuxTrace readTrace(File file, int labelColumn,
+			int proximityColumn, int levelColumn) throws IOException {
+		if (file.getName().endsWith(".bin")) {
+			return LuxTrace.readRecorded(file);
+		}
+		return LuxTrace.readCsv(file, labelColumn, proximityColumn, levelColumn);
+	}
+
+}
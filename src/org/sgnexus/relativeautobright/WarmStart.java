@@ -0,0 +1,130 @@
+package org.sgnexus.relativeautobright;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The last filtered lux, when it was read and the brightness it gave, kept
+ * in a tiny memory-mapped file so it survives screen off and service
+ * restarts. Saving is a few stores into the mapping with no system call.
+ * Used to set a predicted brightness the moment the screen comes on,
+ * before the light sensor has reported.
+ */
+class WarmStart {
+	static private final int MAGIC = 0x52414257; // "RABW"
+	static private final int SIZE = 32;
+
+	// Offsets in the record; the sequence is odd while a save is under way
+	static private final int SEQUENCE = 4;
+	static private final int TIME = 8;
+	static private final int LUX = 16;
+	static private final int BRIGHTNESS = 20;
+
+	// Confidence in a saved reading halves roughly every 10 minutes
+	static final long DECAY_MS = 15 * 60 * 1000;
+	static final float MIN_CONFIDENCE = 0.05f;
+
+	private final File mFile;
+	private MappedByteBuffer mBuffer;
+
+	private long mTimeMs = 0;
+	private float mLux = -1.0f;
+	private int mBrightness = -1;
+
+	WarmStart(File file) {
+		mFile = file;
+	}
+
+	/**
+	 * Map the file, creating it if needed, and read the saved state.
+	 */
+	void open() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			boolean created = file.length() < SIZE;
+			file.setLength(SIZE);
+			mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+					0, SIZE);
+			mBuffer.order(ByteOrder.nativeOrder());
+
+			if (created || mBuffer.getInt(0) != MAGIC
+					|| (mBuffer.getInt(SEQUENCE) & 1) != 0) {
+				// New or torn: start empty
+				mBuffer.putInt(0, MAGIC);
+				mBuffer.putInt(SEQUENCE, 0);
+				mBuffer.putLong(TIME, 0);
+			} else {
+				mTimeMs = mBuffer.getLong(TIME);
+				mLux = mBuffer.getFloat(LUX);
+				mBrightness = mBuffer.getInt(BRIGHTNESS);
+			}
+		} finally {
+			file.close(); // the mapping stays valid
+		}
+	}
+
+	boolean hasState() {
+		return mTimeMs > 0 && mLux >= 0;
+	}
+
+	/**
+	 * Remember a reading; timeMs is wall clock time, so it stays meaningful
+	 * across reboots.
+	 */
+	void save(long timeMs, float lux, int brightness) {
+		mTimeMs = timeMs;
+		mLux = lux;
+		mBrightness = brightness;
+
+		if (mBuffer != null) {
+			int sequence = mBuffer.getInt(SEQUENCE);
+			mBuffer.putInt(SEQUENCE, sequence + 1);
+			mBuffer.putLong(TIME, timeMs);
+			mBuffer.putFloat(LUX, lux);
+			mBuffer.putInt(BRIGHTNESS, brightness);
+			mBuffer.putInt(SEQUENCE, sequence + 2);
+		}
+	}
+
+	/**
+	 * How much to trust the saved reading at the given time, from 1 when
+	 * fresh down towards 0.
+	 */
+	float confidence(long nowMs) {
+		long age = nowMs - mTimeMs;
+		if (!hasState() || age < 0) {
+			return 0; // nothing saved, or the clock moved back
+		}
+		return (float) Math.exp(-(double) age / DECAY_MS);
+	}
+
+	/**
+	 * Brightness to show now: what the strategy makes of the saved lux at
+	 * the current level, blended towards the current brightness as the
+	 * reading ages. Returns -1 if there is nothing worth predicting.
+	 */
+	int predict(long nowMs, AutoBrightnessStrategy strategy,
+			int relativeLevel, int currentBrightness) {
+		float confidence = confidence(nowMs);
+		if (confidence < MIN_CONFIDENCE) {
+			return -1;
+		}
+
+		int saved = strategy.computeBrightness(mLux, relativeLevel);
+		return Math.round(currentBrightness + confidence
+				* (saved - currentBrightness));
+	}
+
+	float getLux() {
+		return mLux;
+	}
+
+	int getBrightness() {
+		return mBrightness;
+	}
+
+}
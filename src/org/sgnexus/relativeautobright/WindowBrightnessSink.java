@@ -0,0 +1,78 @@
+package org.sgnexus.relativeautobright;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Window;
+import android.view.WindowManager;
+
+/**
+ * Overrides the brightness of one of our own windows. Unlike the system
+ * setting this is a float and costs no provider write, so it can take every
+ * step of a ramp while the window is in front. Values set from any thread
+ * are coalesced and applied on the main thread.
+ */
+class WindowBrightnessSink implements BrightnessSink {
+	// Float bits of a NaN, never a real value
+	static private final int NONE = -1;
+	// Some devices turn the backlight off at 0
+	static private final float MIN_BRIGHTNESS = 1.0f / Data.MAX_BRIGHTNESS;
+
+	private final Window mWindow;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final AtomicInteger mPending = new AtomicInteger(NONE);
+	private volatile boolean mReleased = false;
+
+	private final Runnable mApplyRunnable = new Runnable() {
+		@Override
+		public void run() {
+			int bits = mPending.getAndSet(NONE);
+			if (bits != NONE) {
+				apply(Float.intBitsToFloat(bits));
+			}
+		}
+	};
+
+	WindowBrightnessSink(Window window) {
+		mWindow = window;
+	}
+
+	@Override
+	public void setBrightness(float brightness) {
+		if (mReleased) {
+			return; // a step that raced with release()
+		}
+		brightness = toWindow(brightness);
+		if (mPending.getAndSet(Float.floatToIntBits(brightness)) == NONE) {
+			mHandler.post(mApplyRunnable);
+		}
+	}
+
+	/**
+	 * The window override for a brightness: clamped to 0-1, but never off.
+	 */
+	static float toWindow(float brightness) {
+		return Math.min(Math.max(brightness, MIN_BRIGHTNESS), 1.0f);
+	}
+
+	/**
+	 * Drop the override so the window follows the system setting again,
+	 * for good; call on the main thread.
+	 */
+	void release() {
+		mReleased = true;
+		mHandler.removeCallbacks(mApplyRunnable);
+		mPending.set(NONE);
+		apply(WindowManager.LayoutParams.BRIGHTNESS_OVERRIDE_NONE);
+	}
+
+	private void apply(float brightness) {
+		WindowManager.LayoutParams params = mWindow.getAttributes();
+		if (params.screenBrightness != brightness) {
+			params.screenBrightness = brightness;
+			mWindow.setAttributes(params);
+		}
+	}
+
+}
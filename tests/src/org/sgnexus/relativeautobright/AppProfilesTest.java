@@ -0,0 +1,92 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class AppProfilesTest {
+
+	@Test
+	public void parsesOffsets() {
+		AppProfiles profiles = AppProfiles
+				.parse(" com.example.video=+20 com.example.reader=-15,org.maps=5;x.y=0 ");
+		assertEquals(4, profiles.size());
+		assertEquals(20, profiles.offsetFor("com.example.video"));
+		assertEquals(-15, profiles.offsetFor("com.example.reader"));
+		assertEquals(5, profiles.offsetFor("org.maps"));
+		assertEquals(0, profiles.offsetFor("x.y"));
+	}
+
+	@Test
+	public void unknownAppsHaveNoOffset() {
+		AppProfiles profiles = AppProfiles.parse("com.example.video=20");
+		assertEquals(0, profiles.offsetFor("com.example.reader"));
+		assertEquals(0, profiles.offsetFor("com.example.vide"));
+		assertEquals(0, profiles.offsetFor(null));
+	}
+
+	@Test
+	public void emptyConfigIsShared() {
+		assertSame(AppProfiles.EMPTY, AppProfiles.parse(null));
+		assertSame(AppProfiles.EMPTY, AppProfiles.parse(""));
+		assertSame(AppProfiles.EMPTY, AppProfiles.parse("  \n"));
+		assertEquals(0, AppProfiles.EMPTY.offsetFor("com.example.video"));
+	}
+
+	@Test
+	public void skipsEntriesThatDoNotParse() {
+		AppProfiles profiles = AppProfiles
+				.parse("=5 com.a com.b=x com.c= com.d=12 com.e=3.5");
+		assertEquals(1, profiles.size());
+		assertEquals(12, profiles.offsetFor("com.d"));
+		assertEquals(0, profiles.offsetFor("com.b"));
+	}
+
+	@Test
+	public void clampsOffsets() {
+		AppProfiles profiles = AppProfiles.parse("up=250 down=-250");
+		assertEquals(Data.MAX_RELATIVE_LEVEL, profiles.offsetFor("up"));
+		assertEquals(-Data.MAX_RELATIVE_LEVEL, profiles.offsetFor("down"));
+	}
+
+	@Test
+	public void laterEntryWins() {
+		AppProfiles profiles = AppProfiles.parse("com.a=10 com.a=-10");
+		assertEquals(1, profiles.size());
+		assertEquals(-10, profiles.offsetFor("com.a"));
+	}
+
+	@Test
+	public void zeroHashIsStillFound() {
+		assertEquals(0, "f5a5a608".hashCode());
+		AppProfiles profiles = AppProfiles.parse("f5a5a608=7");
+		assertEquals(7, profiles.offsetFor("f5a5a608"));
+		assertEquals(0, profiles.offsetFor("com.a"));
+	}
+
+	@Test
+	public void equalHashesShareAnOffset() {
+		// Documented trade-off: keyed by hash alone
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		AppProfiles profiles = AppProfiles.parse("Aa=9");
+		assertEquals(9, profiles.offsetFor("BB"));
+	}
+
+	@Test
+	public void findsEveryEntryOfALongList() {
+		StringBuilder config = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			config.append("com.example.app").append(i).append('=')
+					.append(i % 101 - 50).append(' ');
+		}
+
+		AppProfiles profiles = AppProfiles.parse(config.toString());
+		assertEquals(200, profiles.size());
+		for (int i = 0; i < 200; i++) {
+			assertEquals(i % 101 - 50, profiles.offsetFor("com.example.app" + i));
+		}
+		assertEquals(0, profiles.offsetFor("com.example.app200"));
+	}
+
+}
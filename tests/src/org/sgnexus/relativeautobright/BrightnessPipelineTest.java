@@ -0,0 +1,181 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BrightnessPipelineTest {
+	private static final long START = 100000;
+	private static final long STEP = 1000 / Data.RAMP_STEPS_PER_SECOND;
+
+	// Brightness is the lux, so expected values can be read off the input
+	private static final AutoBrightnessStrategy IDENTITY = new AutoBrightnessStrategy() {
+		@Override
+		int computeBrightness(float lux, int relativeLevel) {
+			return Math.min(Math.round(lux), Data.MAX_BRIGHTNESS);
+		}
+	};
+
+	private final Metrics mMetrics = new Metrics();
+	private final FakeHost mHost = new FakeHost();
+	private final BrightnessPipeline mPipeline = new BrightnessPipeline(
+			mHost, mMetrics, new WarmStart(null), IDENTITY);
+
+	@Test
+	public void firstReadingJumps() {
+		mPipeline.setRampDuration(500);
+		mPipeline.onReading(120);
+
+		// Nothing known to ramp from
+		assertEquals(1, mHost.writes.size());
+		assertEquals(120, mHost.lastWrite());
+		assertEquals(Long.MAX_VALUE, mHost.nextStep);
+		assertEquals(120, mHost.lux, 0);
+	}
+
+	@Test
+	public void rampsToSettingWithoutWindow() {
+		mPipeline.setRampDuration(3000);
+		mPipeline.setBrightness(16);
+		mPipeline.onReading(200);
+		mHost.runRamp(mPipeline);
+
+		// From 16 every step moves the value, so each one writes, ending
+		// on target
+		assertEquals(3000 / STEP, mHost.writes.size());
+		assertEquals(200, mHost.lastWrite());
+		assertEquals(START + 3000, mHost.writes.get(mHost.writes.size() - 1)[0]);
+	}
+
+	@Test
+	public void windowHoldsBackSettingUntilReconcile() {
+		MemoryBrightnessSink window = new MemoryBrightnessSink();
+		mHost.window = window;
+		mPipeline.setRampDuration(3000);
+		mPipeline.setBrightness(16);
+		mPipeline.onReading(200);
+		mHost.runRamp(mPipeline);
+
+		// Every step, the one starting the ramp included, goes to the window
+		assertEquals(3000 / STEP + 1, window.getWrites());
+		assertEquals(200.0f / Data.MAX_BRIGHTNESS, window.getBrightness(), 0);
+		assertEquals(3000 / STEP + 1, mMetrics.windowSteps.get());
+
+		// The setting catches up on the first step that moves, then at
+		// most once every BRIGHTNESS_RECONCILE_INTERVAL, and at the end
+		long interval = Data.BRIGHTNESS_RECONCILE_INTERVAL;
+		assertEquals(4, mHost.writes.size());
+		assertEquals(START + STEP, mHost.writes.get(0)[0]);
+		assertEquals(START + STEP + interval, mHost.writes.get(1)[0]);
+		assertEquals(START + STEP + 2 * interval, mHost.writes.get(2)[0]);
+		assertEquals(START + 3000, mHost.writes.get(3)[0]);
+		assertEquals(200, mHost.lastWrite());
+		assertEquals(200, mPipeline.getBrightness());
+	}
+
+	@Test
+	public void endLevelsFixBrightness() {
+		mPipeline.setRampDuration(3000);
+		mPipeline.onReading(120);
+
+		mPipeline.setLevel(Data.MAX_RELATIVE_LEVEL, Data.MAX_RELATIVE_LEVEL);
+		assertFalse(mPipeline.update());
+		assertEquals(Data.MAX_BRIGHTNESS, mHost.lastWrite());
+		assertEquals(Long.MAX_VALUE, mHost.nextStep);
+
+		// A reading already on its way changes nothing
+		mHost.now += 10000;
+		mPipeline.onReading(30);
+		assertEquals(Data.MAX_BRIGHTNESS, mHost.lastWrite());
+
+		mPipeline.setLevel(50, 50);
+		assertTrue(mPipeline.update());
+		assertTrue(mHost.nextStep != Long.MAX_VALUE);
+		assertEquals(30, mPipeline.getTarget());
+	}
+
+	@Test
+	public void occludedReadingsAreDropped() {
+		mPipeline.onReading(120);
+		mPipeline.setNear(true);
+		mHost.now += 1000;
+		long interval = mPipeline.onReading(5);
+
+		assertEquals(mPipeline.getScheduler().getInterval(), interval);
+		assertEquals(1, mMetrics.occludedSamples.get());
+		assertEquals(120, mHost.lastWrite());
+		assertEquals(120, mPipeline.getLux(), 0);
+	}
+
+	private static class FakeHost implements BrightnessPipeline.Host {
+		long now = START;
+		long nextStep = Long.MAX_VALUE;
+		float lux = -1;
+		BrightnessSink window;
+		// Time and value of each setting write
+		final List<long[]> writes = new ArrayList<long[]>();
+
+		void runRamp(BrightnessPipeline pipeline) {
+			while (nextStep != Long.MAX_VALUE) {
+				now = nextStep;
+				nextStep = Long.MAX_VALUE;
+				pipeline.stepRamp();
+			}
+		}
+
+		int lastWrite() {
+			return (int) writes.get(writes.size() - 1)[1];
+		}
+
+		@Override
+		public long uptimeMillis() {
+			return now;
+		}
+
+		@Override
+		public long currentTimeMillis() {
+			return now;
+		}
+
+		@Override
+		public void publishLux(float lux) {
+			this.lux = lux;
+		}
+
+		@Override
+		public boolean writeBrightness(int brightness) {
+			writes.add(new long[] { now, brightness });
+			return true;
+		}
+
+		@Override
+		public BrightnessSink getWindowSink() {
+			return window;
+		}
+
+		@Override
+		public void scheduleRampStep(long delayMs) {
+			nextStep = now + delayMs;
+		}
+
+		@Override
+		public void cancelRampStep() {
+			nextStep = Long.MAX_VALUE;
+		}
+
+		@Override
+		public void onPowerBudgetChanged() {
+		}
+
+		@Override
+		public void record(float lux, int level, int brightness,
+				boolean written) {
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BrightnessRampTest {
+	private static final long DURATION = 500;
+	// Arbitrary, so nothing relies on the clock starting at zero
+	private static final long START = 123456;
+
+	private final BrightnessRamp mRamp = new BrightnessRamp(DURATION,
+			Data.RAMP_STEPS_PER_SECOND);
+
+	@Test
+	public void reachesEndpointsExactly() {
+		mRamp.start(10, 200, START);
+		assertTrue(mRamp.isRunning());
+		assertEquals(10, mRamp.valueAt(START));
+		assertEquals(200, mRamp.getTarget());
+
+		assertEquals(200, mRamp.valueAt(START + DURATION));
+		assertFalse(mRamp.isRunning());
+		assertEquals(1.0f * 200 / Data.MAX_BRIGHTNESS,
+				mRamp.levelAt(START + DURATION + 1), 0);
+
+		mRamp.start(200, 0, START);
+		assertEquals(200, mRamp.valueAt(START));
+		assertEquals(0, mRamp.valueAt(START + DURATION));
+		assertFalse(mRamp.isRunning());
+	}
+
+	@Test
+	public void stepsPerSecondAreCapped() {
+		assertEquals(1000 / Data.RAMP_STEPS_PER_SECOND, mRamp.getStepInterval());
+		assertEquals(1, new BrightnessRamp(DURATION, 5000).getStepInterval());
+		assertEquals(1000, new BrightnessRamp(DURATION, 0).getStepInterval());
+
+		// Stepping on the ramp's own interval, as the service does, takes
+		// duration * steps per second, the last step landing on the target
+		mRamp.start(0, 255, START);
+		long now = START;
+		int steps = 0;
+		int last = 0;
+		while (mRamp.isRunning()) {
+			now += mRamp.getStepInterval();
+			last = mRamp.valueAt(now);
+			steps++;
+		}
+		assertEquals(DURATION * Data.RAMP_STEPS_PER_SECOND / 1000, steps);
+		assertEquals(255, last);
+	}
+
+	@Test
+	public void retargetContinuesFromCurrentValue() {
+		mRamp.start(0, 100, START);
+		int halfway = mRamp.valueAt(START + DURATION / 2);
+		assertTrue("halfway " + halfway, halfway > 0 && halfway < 100);
+
+		// The from value is ignored while running
+		mRamp.start(255, 200, START + DURATION / 2);
+		assertTrue(mRamp.isRunning());
+		assertEquals(halfway, mRamp.valueAt(START + DURATION / 2));
+		assertEquals(200, mRamp.valueAt(START + DURATION / 2 + DURATION));
+		assertFalse(mRamp.isRunning());
+	}
+
+	@Test
+	public void nothingToRamp() {
+		BrightnessRamp instant = new BrightnessRamp(0, Data.RAMP_STEPS_PER_SECOND);
+		instant.start(10, 200, START);
+		assertFalse(instant.isRunning());
+		assertEquals(200, instant.valueAt(START));
+
+		mRamp.start(80, 80, START);
+		assertFalse(mRamp.isRunning());
+		assertEquals(80, mRamp.valueAt(START));
+	}
+
+	@Test
+	public void curveIsMonotonicAndPerceptual() {
+		mRamp.start(0, 255, START);
+		int previous = 0;
+		for (long t = START; t <= START + DURATION; t++) {
+			int value = mRamp.valueAt(t);
+			assertTrue(value + " after " + previous, value >= previous);
+			previous = value;
+		}
+
+		mRamp.start(255, 4, START);
+		previous = 255;
+		for (long t = START; t <= START + DURATION; t++) {
+			int value = mRamp.valueAt(t);
+			assertTrue(value + " after " + previous, value <= previous);
+			previous = value;
+		}
+
+		// Halfway in time is halfway in square root, well below the
+		// linear midpoint
+		mRamp.start(0, 100, START);
+		assertEquals(25, mRamp.valueAt(START + DURATION / 2));
+	}
+
+}
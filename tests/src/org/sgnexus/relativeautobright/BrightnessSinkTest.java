@@ -0,0 +1,57 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class BrightnessSinkTest {
+
+	@Test
+	public void settingMapsFractionToSteps() {
+		assertEquals(0, BrightnessWriter.toSetting(0));
+		assertEquals(255, BrightnessWriter.toSetting(1));
+		assertEquals(128, BrightnessWriter.toSetting(0.5f));
+		// Rounded to the nearest step
+		assertEquals(1, BrightnessWriter.toSetting(0.6f / 255));
+		assertEquals(0, BrightnessWriter.toSetting(0.4f / 255));
+		for (int i = 0; i <= Data.MAX_BRIGHTNESS; i++) {
+			assertEquals(i, BrightnessWriter.toSetting((float) i
+					/ Data.MAX_BRIGHTNESS));
+		}
+	}
+
+	@Test
+	public void settingIsClamped() {
+		assertEquals(0, BrightnessWriter.toSetting(-0.5f));
+		assertEquals(255, BrightnessWriter.toSetting(1.5f));
+		assertEquals(0, BrightnessWriter.toSetting(Float.NEGATIVE_INFINITY));
+		assertEquals(255, BrightnessWriter.toSetting(Float.POSITIVE_INFINITY));
+	}
+
+	@Test
+	public void windowIsClampedButNeverOff() {
+		float min = 1.0f / Data.MAX_BRIGHTNESS;
+		assertEquals(min, WindowBrightnessSink.toWindow(0), 0);
+		assertEquals(min, WindowBrightnessSink.toWindow(-1), 0);
+		assertEquals(0.5f, WindowBrightnessSink.toWindow(0.5f), 0);
+		assertEquals(1, WindowBrightnessSink.toWindow(1), 0);
+		assertEquals(1, WindowBrightnessSink.toWindow(2), 0);
+		// Finer than the setting's steps
+		assertEquals(0.3333f, WindowBrightnessSink.toWindow(0.3333f), 0);
+	}
+
+	@Test
+	public void memoryKeepsLastAndCounts() {
+		MemoryBrightnessSink sink = new MemoryBrightnessSink();
+		assertEquals(-1, sink.getBrightness(), 0);
+		assertEquals(0, sink.getWrites());
+
+		sink.setBrightness(0.25f);
+		sink.setBrightness(0.75f);
+		sink.setBrightness(0.75f);
+		assertEquals(0.75f, sink.getBrightness(), 0);
+		// Every call counts, repeats included
+		assertEquals(3, sink.getWrites());
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.sgnexus.relativeautobright.Data.OnDataChangedListener;
+
+public class ChangeListenersTest {
+	private final ChangeListeners mListeners = new ChangeListeners(
+			Data.CHANGE_COUNT);
+
+	@Test
+	public void onlyWakesSubscribers() {
+		Counter lux = new Counter();
+		Counter all = new Counter();
+		mListeners.add(lux, Data.changeMask(Data.CHANGE_LUX));
+		mListeners.add(all, Data.ALL_CHANGES);
+
+		mListeners.dispatch(Data.CHANGE_LUX);
+		mListeners.dispatch(Data.CHANGE_SENSE_INTERVAL);
+		assertEquals(1, lux.mCount);
+		assertEquals(2, all.mCount);
+		assertEquals(Data.CHANGE_SENSE_INTERVAL, all.mLastChange);
+	}
+
+	@Test
+	public void addsOnce() {
+		Counter counter = new Counter();
+		mListeners.add(counter, Data.ALL_CHANGES);
+		mListeners.add(counter, Data.changeMask(Data.CHANGE_LUX));
+		assertEquals(1, mListeners.size());
+
+		mListeners.dispatch(Data.CHANGE_LUX);
+		assertEquals(1, counter.mCount);
+	}
+
+	@Test
+	public void removes() {
+		Counter first = new Counter();
+		Counter second = new Counter();
+		mListeners.add(first, Data.ALL_CHANGES);
+		mListeners.add(second, Data.ALL_CHANGES);
+
+		mListeners.remove(first);
+		mListeners.dispatch(Data.CHANGE_LUX);
+		assertEquals(0, first.mCount);
+		assertEquals(1, second.mCount);
+		assertEquals(1, mListeners.size());
+
+		mListeners.clear();
+		mListeners.dispatch(Data.CHANGE_LUX);
+		assertEquals(1, second.mCount);
+		assertEquals(0, mListeners.size());
+	}
+
+	@Test
+	public void listenerMayRemoveItselfDuringDispatch() {
+		final Counter after = new Counter();
+		OnDataChangedListener once = new OnDataChangedListener() {
+			@Override
+			public void onDataChanged(int change) {
+				mListeners.remove(this);
+			}
+		};
+		mListeners.add(once, Data.ALL_CHANGES);
+		mListeners.add(after, Data.ALL_CHANGES);
+
+		mListeners.dispatch(Data.CHANGE_LUX);
+		mListeners.dispatch(Data.CHANGE_LUX);
+		assertEquals(2, after.mCount);
+		assertEquals(1, mListeners.size());
+	}
+
+	static private class Counter implements OnDataChangedListener {
+		int mCount = 0;
+		int mLastChange = -1;
+
+		@Override
+		public void onDataChanged(int change) {
+			mCount++;
+			mLastChange = change;
+		}
+	}
+
+}
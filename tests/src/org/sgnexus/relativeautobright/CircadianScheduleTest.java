@@ -0,0 +1,85 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class CircadianScheduleTest {
+	// Clocks go forward at 02:00 on 31 March 2024 and back at 03:00 on
+	// 27 October 2024
+	private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+
+	private final CircadianSchedule mSchedule = new CircadianSchedule(BERLIN);
+
+	@Test
+	public void emptyScheduleHasNoOffset() {
+		assertEquals(0, mSchedule.offsetAt(at(2024, Calendar.JUNE, 1, 12, 0)));
+		mSchedule.configure("nonsense 25:00=5 07:00");
+		assertEquals(0, mSchedule.offsetAt(at(2024, Calendar.JUNE, 1, 12, 0)));
+	}
+
+	@Test
+	public void singlePointAllDay() {
+		mSchedule.configure("07:00=+10");
+		assertEquals(10, mSchedule.offsetAt(at(2024, Calendar.JUNE, 1, 0, 0)));
+		assertEquals(10, mSchedule.offsetAt(at(2024, Calendar.JUNE, 1, 23, 59)));
+	}
+
+	@Test
+	public void interpolatesBetweenPoints() {
+		mSchedule.configure("00:00=-30 12:00=+30");
+		assertEquals(-30, mSchedule.offsetAt(at(2024, Calendar.JUNE, 1, 0, 0)));
+		assertEquals(0, mSchedule.offsetAt(at(2024, Calendar.JUNE, 1, 6, 0)));
+		assertEquals(30, mSchedule.offsetAt(at(2024, Calendar.JUNE, 1, 12, 0)));
+		assertEquals(0, mSchedule.offsetAt(at(2024, Calendar.JUNE, 1, 18, 0)));
+	}
+
+	@Test
+	public void windowWrapsRoundMidnight() {
+		mSchedule.configure("23:00=-30 01:00=-10");
+		assertEquals(-30, mSchedule.offsetAt(at(2024, Calendar.JUNE, 1, 23, 0)));
+		assertEquals(-25, mSchedule.offsetAt(at(2024, Calendar.JUNE, 1, 23, 30)));
+		assertEquals(-20, mSchedule.offsetAt(at(2024, Calendar.JUNE, 2, 0, 0)));
+		assertEquals(-10, mSchedule.offsetAt(at(2024, Calendar.JUNE, 2, 1, 0)));
+		// And back over the rest of the day
+		assertEquals(-20, mSchedule.offsetAt(at(2024, Calendar.JUNE, 2, 12, 0)));
+	}
+
+	@Test
+	public void followsWallClockOnDstDays() {
+		mSchedule.configure("00:00=-30 12:00=+30");
+
+		// 23 and 25 hour days: noon is 11 and 13 hours after midnight
+		assertEquals(30, mSchedule.offsetAt(at(2024, Calendar.MARCH, 31, 12, 0)));
+		assertEquals(-30, mSchedule.offsetAt(at(2024, Calendar.MARCH, 31, 0, 0)));
+		assertEquals(-30 + 60 * 180 / 720,
+				mSchedule.offsetAt(at(2024, Calendar.MARCH, 31, 3, 0)));
+		assertEquals(-30,
+				mSchedule.offsetAt(at(2024, Calendar.MARCH, 31, 23, 59)));
+
+		assertEquals(30, mSchedule.offsetAt(at(2024, Calendar.OCTOBER, 27, 12, 0)));
+		assertEquals(-30 + 60 * 120 / 720,
+				mSchedule.offsetAt(at(2024, Calendar.OCTOBER, 27, 2, 0)));
+		assertEquals(-30,
+				mSchedule.offsetAt(at(2024, Calendar.OCTOBER, 27, 23, 59)));
+		assertEquals(-30, mSchedule.offsetAt(at(2024, Calendar.OCTOBER, 28, 0, 0)));
+	}
+
+	@Test
+	public void clockGoingBackwards() {
+		mSchedule.configure("00:00=-30 12:00=+30");
+		assertEquals(30, mSchedule.offsetAt(at(2024, Calendar.JUNE, 2, 12, 0)));
+		assertEquals(0, mSchedule.offsetAt(at(2024, Calendar.JUNE, 1, 6, 0)));
+	}
+
+	private static long at(int year, int month, int day, int hour, int minute) {
+		Calendar calendar = Calendar.getInstance(BERLIN);
+		calendar.clear();
+		calendar.set(year, month, day, hour, minute);
+		return calendar.getTimeInMillis();
+	}
+
+}
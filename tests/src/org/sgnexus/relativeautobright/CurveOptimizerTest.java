@@ -0,0 +1,120 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CurveOptimizerTest {
+	// Thresholds on the optimizer's lux grid, so the fit can be exact
+	private final DefaultStrategy mCurve = new DefaultStrategy(10, 1000, 20,
+			70);
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	@Test
+	public void fitsOnlySamplesAtItsLevel() throws Exception {
+		List<LuxTrace> traces = Arrays.asList(trace(50, 3000), trace(90, 1000));
+
+		CurveOptimizer optimizer = new CurveOptimizer(traces, 50);
+		CurveOptimizer.Best best = optimizer.search(2);
+		assertEquals(3000, optimizer.samples());
+		assertEquals(1000, optimizer.otherLevelSamples());
+		assertEquals(0, best.error);
+		for (float lux = 0.5f; lux < 50000; lux *= 1.3f) {
+			assertEquals(mCurve.computeBrightness(lux, 50),
+					best.strategy.computeBrightness(lux, 50));
+		}
+
+		// At level 90 the same curve fits those samples instead
+		optimizer = new CurveOptimizer(traces, 90);
+		assertEquals(1000, optimizer.samples());
+		assertEquals(0, optimizer.search(2).error);
+	}
+
+	@Test
+	public void usesEveryLevelWhenNotRecorded() throws Exception {
+		LuxTrace mixed = trace(50, 100);
+		LuxTrace unleveled = new LuxTrace("mixed", mixed.time, mixed.lux,
+				mixed.label);
+
+		CurveOptimizer optimizer = new CurveOptimizer(Arrays.asList(unleveled),
+				80);
+		assertEquals(100, optimizer.samples());
+		assertEquals(0, optimizer.otherLevelSamples());
+	}
+
+	@Test
+	public void picksMostCommonLevel() {
+		List<LuxTrace> traces = new ArrayList<LuxTrace>();
+		traces.add(trace(30, 100));
+		traces.add(trace(60, 250));
+		traces.add(trace(30, 200));
+		assertEquals(30, CurveOptimizer.mostCommonLevel(traces));
+
+		LuxTrace unleveled = new LuxTrace("none", new long[1], new float[1],
+				new short[1]);
+		assertEquals(-1,
+				CurveOptimizer.mostCommonLevel(Arrays.asList(unleveled)));
+	}
+
+	@Test
+	public void readsLevelsFromExportedCsv() throws IOException {
+		File file = mFolder.newFile("trace.csv");
+		FileWriter writer = new FileWriter(file);
+		writer.write("timeMs,lux,relativeLevel,brightness,written\n");
+		writer.write("1000,12.5,40,90,1\n");
+		writer.write("2000,300.0,65,120,0\n");
+		writer.close();
+
+		LuxTrace trace = TraceReplayer.readTrace(file, 3, -1, 2);
+		assertEquals(2, trace.size());
+		assertEquals(40, trace.level[0]);
+		assertEquals(65, trace.level[1]);
+		assertEquals(120, trace.label[1]);
+	}
+
+	@Test
+	public void readsLevelsFromRecordedTrace() throws IOException {
+		TraceRecorder recorder = new TraceRecorder(mFolder.getRoot());
+		recorder.record(1000, 12.5f, 40, 90, true);
+		recorder.record(2000, 300, 65, 120, false);
+		recorder.flush();
+
+		LuxTrace trace = TraceReplayer.readTrace(new File(mFolder.getRoot(),
+				"trace-0.bin"), 3, -1, 2);
+		assertEquals(2, trace.size());
+		assertEquals(40, trace.level[0]);
+		assertEquals(65, trace.level[1]);
+		assertEquals(120, trace.label[1]);
+	}
+
+	/**
+	 * Samples labelled by the reference curve at the given level.
+	 */
+	private LuxTrace trace(int level, int samples) {
+		Random random = new Random(level);
+		long[] time = new long[samples];
+		float[] lux = new float[samples];
+		short[] label = new short[samples];
+		byte[] levels = new byte[samples];
+		for (int i = 0; i < samples; i++) {
+			time[i] = 1 + i * 1000L;
+			lux[i] = (float) Math.pow(10, random.nextFloat() * 5);
+			label[i] = (short) mCurve.computeBrightness(lux[i], level);
+			levels[i] = (byte) level;
+		}
+		return new LuxTrace("level " + level, time, lux, label, null, levels);
+	}
+
+}
@@ -0,0 +1,173 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LearningStrategyTest {
+	private static final int[] LEVELS = { 1, 20, 50, 80, 99 };
+
+	private final DefaultStrategy mBase = new DefaultStrategy();
+	private final LearningStrategy mLearner = new LearningStrategy(mBase);
+
+	@Test
+	public void untrainedMatchesBase() {
+		assertMatchesBase();
+	}
+
+	@Test
+	public void tapRaisesByOneStep() {
+		int before = mLearner.computeBrightness(200, 50);
+		mLearner.learnAdjustment(200, 50, 1);
+		assertEquals(before + LearningStrategy.STEP,
+				mLearner.computeBrightness(200, 50));
+	}
+
+	@Test
+	public void levelStillAppliesAfterTraining() {
+		mLearner.learnAdjustment(200, 50, 1);
+
+		int correction = mLearner.getCorrection(200);
+		assertEquals(LearningStrategy.STEP, correction);
+		for (int level : LEVELS) {
+			assertEquals("level " + level, clamp(mBase.computeBrightness(200,
+					level) + correction), mLearner.computeBrightness(200, level));
+		}
+		assertNotEquals(mLearner.computeBrightness(200, 20),
+				mLearner.computeBrightness(200, 80));
+	}
+
+	@Test
+	public void tapLeavesDarkerBucketsAlone() {
+		// A brighter preference in a lit room says nothing about the dark
+		mLearner.learnAdjustment(500, 50, 2);
+		for (int level : LEVELS) {
+			assertEquals(mBase.computeBrightness(1, level),
+					mLearner.computeBrightness(1, level));
+		}
+	}
+
+	@Test
+	public void interpolatesBetweenTrainedBuckets() {
+		mLearner.learn(10, 50, mBase.computeBrightness(10, 50));
+		mLearner.learn(1000, 50, mBase.computeBrightness(1000, 50));
+		mLearner.learnAdjustment(1000, 50, 4);
+
+		int previous = Integer.MIN_VALUE;
+		for (float lux = 10; lux <= 1000; lux *= 1.1f) {
+			int correction = mLearner.getCorrection(lux);
+			assertTrue(correction >= previous);
+			assertTrue(correction >= 0 && correction <= 2 * LearningStrategy.STEP);
+			previous = correction;
+		}
+	}
+
+	@Test
+	public void convergesOnPreferredCurve() {
+		// Someone who always wants the screen 30 brighter in rooms of
+		// 50-2000 lux, and tells us with a tap whenever it is off by a step
+		Random random = new Random(7);
+		for (int i = 0; i < 2000; i++) {
+			float lux = 50 + random.nextFloat() * 1950;
+			int level = 20 + random.nextInt(60);
+			int wanted = clamp(mBase.computeBrightness(lux, level) + 30);
+			int shown = mLearner.computeBrightness(lux, level);
+			if (wanted - shown >= LearningStrategy.STEP) {
+				mLearner.learnAdjustment(lux, level, 1);
+			} else if (shown - wanted >= LearningStrategy.STEP) {
+				mLearner.learnAdjustment(lux, level, -1);
+			}
+		}
+
+		for (float lux = 50; lux <= 2000; lux *= 1.2f) {
+			for (int level = 20; level < 80; level += 10) {
+				int wanted = clamp(mBase.computeBrightness(lux, level) + 30);
+				int shown = mLearner.computeBrightness(lux, level);
+				assertTrue("lux " + lux + " level " + level + " shown "
+						+ shown + " wanted " + wanted,
+						Math.abs(shown - wanted) < LearningStrategy.STEP);
+			}
+		}
+	}
+
+	@Test
+	public void staysMonotoneUnderRandomTaps() {
+		Random random = new Random(11);
+		for (int i = 0; i < 500; i++) {
+			float lux = (float) Math.pow(2, random.nextFloat() * 18) - 1;
+			mLearner.learnAdjustment(lux, 1 + random.nextInt(98),
+					random.nextBoolean() ? 1 : -1);
+			assertMonotone();
+		}
+	}
+
+	@Test
+	public void roundTripsThroughBytes() {
+		Random random = new Random(3);
+		for (int i = 0; i < 50; i++) {
+			mLearner.learnAdjustment(random.nextFloat() * 5000,
+					1 + random.nextInt(98), random.nextBoolean() ? 1 : -1);
+		}
+
+		LearningStrategy copy = new LearningStrategy(mBase);
+		assertTrue(copy.readFrom(ByteBuffer.wrap(mLearner.toBytes())));
+		for (float lux = 0; lux < 100000; lux = lux * 1.05f + 0.1f) {
+			for (int level : LEVELS) {
+				assertEquals(mLearner.computeBrightness(lux, level),
+						copy.computeBrightness(lux, level));
+			}
+		}
+	}
+
+	@Test
+	public void rejectsWrongSize() {
+		mLearner.learnAdjustment(200, 50, 1);
+		int before = mLearner.computeBrightness(200, 50);
+
+		assertFalse(mLearner.readFrom(ByteBuffer.allocate(3)));
+		byte[] longer = new byte[mLearner.toBytes().length + 1];
+		longer[0] = (byte) LearningStrategy.BUCKETS;
+		assertFalse(mLearner.readFrom(ByteBuffer.wrap(longer)));
+		assertEquals(before, mLearner.computeBrightness(200, 50));
+	}
+
+	@Test
+	public void forgetReturnsToBase() {
+		mLearner.learnAdjustment(200, 50, 3);
+		mLearner.learnAdjustment(5, 50, -2);
+		mLearner.forget();
+		assertMatchesBase();
+	}
+
+	private void assertMatchesBase() {
+		for (float lux = 0; lux < 100000; lux = lux * 1.05f + 0.1f) {
+			for (int level : LEVELS) {
+				assertEquals(mBase.computeBrightness(lux, level),
+						mLearner.computeBrightness(lux, level));
+			}
+		}
+	}
+
+	private void assertMonotone() {
+		for (int level : LEVELS) {
+			int previous = -1;
+			for (float lux = 0; lux < 100000; lux = lux * 1.05f + 0.1f) {
+				int brightness = mLearner.computeBrightness(lux, level);
+				assertTrue("lux " + lux + " level " + level,
+						brightness >= previous);
+				previous = brightness;
+			}
+		}
+	}
+
+	private static int clamp(int brightness) {
+		return Math.min(Math.max(brightness, 0), 255);
+	}
+
+}
@@ -0,0 +1,111 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LookupTableStrategyTest {
+
+	@Test
+	public void matchesDefaultCurve() {
+		assertMatches(new DefaultStrategy());
+	}
+
+	@Test
+	public void matchesOptimizedCurve() {
+		// Thresholds off the quarter-octave boundaries, as CurveOptimizer
+		// writes them
+		DefaultStrategy curve = new DefaultStrategy();
+		curve.configure("darkLux=3.3 maxLux=784.76 darkLevel=35 offset=52");
+		assertMatches(curve);
+	}
+
+	@Test
+	public void matchesThresholdsInOneBucket() {
+		assertMatches(new DefaultStrategy(900, 1000, 20, 70));
+	}
+
+	@Test
+	public void matchesThresholdsBelowOneLux() {
+		assertMatches(new DefaultStrategy(0.25f, 0.75f, 20, 70));
+		assertMatches(new DefaultStrategy(0, 1, 20, 70));
+	}
+
+	@Test
+	public void followsRebuild() {
+		DefaultStrategy curve = new DefaultStrategy();
+		LookupTableStrategy table = new LookupTableStrategy(curve);
+		curve.setMaxLux(300.5f);
+		table.rebuild();
+		assertEquals(255, table.computeBrightness(301, 50));
+		assertMatches(curve, table);
+	}
+
+	@Test
+	public void clampsLevel() {
+		DefaultStrategy curve = new DefaultStrategy();
+		LookupTableStrategy table = new LookupTableStrategy(curve);
+		assertEquals(curve.computeBrightness(100, 0),
+				table.computeBrightness(100, -5));
+		assertEquals(curve.computeBrightness(100, 100),
+				table.computeBrightness(100, 150));
+	}
+
+	@Test
+	public void bucketsAreMonotonic() {
+		int previous = -1;
+		for (float lux = 0; lux < 300000; lux = lux * 1.01f + 0.01f) {
+			int bucket = LookupTableStrategy.bucketOf(lux);
+			assertEquals(true, bucket >= previous);
+			assertEquals(true,
+					lux >= LookupTableStrategy.bucketLowerBound(bucket));
+			previous = bucket;
+		}
+	}
+
+	private static void assertMatches(AutoBrightnessStrategy curve) {
+		assertMatches(curve, new LookupTableStrategy(curve));
+	}
+
+	private static void assertMatches(AutoBrightnessStrategy curve,
+			LookupTableStrategy table) {
+		// Each bucket boundary, either side of it and points in between
+		for (int bucket = 0; bucket < LookupTableStrategy.BUCKETS; bucket++) {
+			float low = LookupTableStrategy.bucketLowerBound(bucket);
+			float high = bucket + 1 < LookupTableStrategy.BUCKETS ? LookupTableStrategy
+					.bucketLowerBound(bucket + 1) : low * 2;
+			assertMatches(curve, table, low);
+			assertMatches(curve, table, Math.nextUp(low));
+			assertMatches(curve, table, -Math.nextUp(-high)); // just below
+			for (int i = 1; i < 64; i++) {
+				assertMatches(curve, table, low + (high - low) * i / 64);
+			}
+		}
+
+		// The curve's own breakpoints, either side
+		for (float breakpoint : curve.getBreakpoints()) {
+			assertMatches(curve, table, breakpoint);
+			assertMatches(curve, table, Math.nextUp(breakpoint));
+			assertMatches(curve, table, -Math.nextUp(-breakpoint));
+		}
+
+		Random random = new Random(1);
+		for (int i = 0; i < 20000; i++) {
+			assertMatches(curve, table, random.nextFloat() * 2000);
+		}
+		assertMatches(curve, table, -1.0f); // not sensed yet
+		assertMatches(curve, table, 1e9f);
+	}
+
+	private static void assertMatches(AutoBrightnessStrategy curve,
+			LookupTableStrategy table, float lux) {
+		for (int level = 0; level <= Data.MAX_RELATIVE_LEVEL; level++) {
+			assertEquals("lux " + lux + " level " + level,
+					curve.computeBrightness(lux, level),
+					table.computeBrightness(lux, level));
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LuxFilterTest {
+	static private final float DELTA = 1e-4f;
+
+	@Test
+	public void medianRejectsSpikes() {
+		LuxFilter median = new MedianLuxFilter(3);
+		median.filter(100);
+		median.filter(100);
+		assertEquals(100, median.filter(5000), DELTA);
+		assertEquals(100, median.filter(100), DELTA);
+		assertEquals(100, median.filter(0), DELTA);
+	}
+
+	@Test
+	public void medianMatchesSortedWindow() {
+		int window = 5;
+		LuxFilter median = new MedianLuxFilter(window);
+		float[] history = new float[1000];
+		Random random = new Random(5);
+
+		for (int i = 0; i < history.length; i++) {
+			history[i] = random.nextFloat() * 1000;
+			float[] last = Arrays.copyOfRange(history,
+					Math.max(0, i - window + 1), i + 1);
+			Arrays.sort(last);
+			assertEquals("reading " + i, last[last.length / 2],
+					median.filter(history[i]), DELTA);
+		}
+	}
+
+	@Test
+	public void medianForgetsOnReset() {
+		LuxFilter median = new MedianLuxFilter(3);
+		median.filter(1000);
+		median.filter(1000);
+		median.reset();
+		assertEquals(5, median.filter(5), DELTA);
+	}
+
+	@Test
+	public void emaSmoothsTowardsReadings() {
+		LuxFilter ema = new EmaLuxFilter(0.5f);
+		assertEquals(0, ema.filter(0), DELTA);
+		assertEquals(50, ema.filter(100), DELTA);
+		assertEquals(75, ema.filter(100), DELTA);
+		ema.reset();
+		assertEquals(100, ema.filter(100), DELTA);
+
+		LuxFilter passThrough = new EmaLuxFilter(1.0f);
+		passThrough.filter(10);
+		assertEquals(500, passThrough.filter(500), DELTA);
+	}
+
+	@Test
+	public void hysteresisHoldsInsideBand() {
+		LuxFilter hysteresis = new HysteresisLuxFilter(0.1f);
+		assertEquals(100, hysteresis.filter(100), DELTA);
+		assertEquals(100, hysteresis.filter(109), DELTA);
+		assertEquals(100, hysteresis.filter(93), DELTA);
+		assertEquals(112, hysteresis.filter(112), DELTA);
+		assertEquals(112, hysteresis.filter(103), DELTA);
+		assertEquals(90, hysteresis.filter(90), DELTA);
+	}
+
+	@Test
+	public void hysteresisBandIsARatio() {
+		// Same 10% band in the dark and in daylight
+		LuxFilter dark = new HysteresisLuxFilter(0.1f);
+		dark.filter(9);
+		assertEquals(9, dark.filter(9.9f), DELTA);
+		assertEquals(11, dark.filter(11), DELTA);
+
+		LuxFilter bright = new HysteresisLuxFilter(0.1f);
+		bright.filter(10000);
+		assertEquals(10000, bright.filter(10900), DELTA);
+		assertEquals(11200, bright.filter(11200), DELTA);
+	}
+
+	@Test
+	public void chainSkipsPassThroughStages() {
+		LuxFilter chain = LuxFilterChain.create(1, 0, 0);
+		Random random = new Random(2);
+		for (int i = 0; i < 100; i++) {
+			float lux = random.nextFloat() * 1000;
+			assertEquals(lux, chain.filter(lux), 0);
+		}
+	}
+
+	@Test
+	public void filtersCutWritesTenfoldInFlicker() {
+		LuxTrace trace = flickerTrace();
+		TraceReplayer.Result raw = replay(trace, 1, 0, 0);
+		TraceReplayer.Result filtered = replay(trace, 3, 50, 10);
+
+		// Both take the same readings, spaced by the adaptive scheduler;
+		// measured 1408 writes raw and 142 filtered
+		assertEquals(raw.wakeUps, filtered.wakeUps);
+		assertTrue("raw writes " + raw.brightnessWrites,
+				raw.brightnessWrites > 1000);
+		assertTrue("filtered " + filtered.brightnessWrites + " vs raw "
+				+ raw.brightnessWrites,
+				filtered.brightnessWrites * 9 <= raw.brightnessWrites);
+	}
+
+	@Test
+	public void filtersStillFollowLightChanges() {
+		// Labelled with the curve at the underlying light level, so any
+		// error is lag or flicker let through
+		TraceReplayer.Result filtered = replay(flickerTrace(), 3, 50, 10);
+		assertTrue("mean error " + filtered.meanError(),
+				filtered.meanError() < 3);
+	}
+
+	/**
+	 * Brightness proportional to log lux, so every change in lux shows.
+	 */
+	static final AutoBrightnessStrategy LOG_CURVE = new AutoBrightnessStrategy() {
+		@Override
+		int computeBrightness(float lux, int relativeLevel) {
+			return Math.min(
+					Math.round(18 * (float) (Math.log(Math.max(lux, 0) + 1) / Math
+							.log(2))), MAX);
+		}
+	};
+
+	/**
+	 * Three hours of lamp light sampled at 5 Hz: +-15% flicker, a passing
+	 * shadow now and then, and a change of room every half hour.
+	 */
+	static LuxTrace flickerTrace() {
+		float[] rooms = { 300, 30, 1000, 120, 600, 15 };
+		int samples = 3 * 60 * 60 * 5;
+		long[] time = new long[samples];
+		float[] lux = new float[samples];
+		short[] label = new short[samples];
+		Random random = new Random(3);
+
+		for (int i = 0; i < samples; i++) {
+			time[i] = 1 + i * 200L;
+			float room = rooms[(int) (time[i] / (30 * 60 * 1000)) % rooms.length];
+			float value = room * (0.85f + 0.3f * random.nextFloat());
+			if (random.nextInt(100) == 0) {
+				value *= 0.4f;
+			}
+			lux[i] = value;
+			label[i] = (short) LOG_CURVE.computeBrightness(room, 50);
+		}
+		return new LuxTrace("flicker", time, lux, label);
+	}
+
+	private static TraceReplayer.Result replay(LuxTrace trace,
+			final int medianWindow, final int smoothing, final int hysteresis) {
+		TraceReplayer replayer = new TraceReplayer(new TraceReplayer.Setup() {
+			@Override
+			public AutoBrightnessStrategy createStrategy() {
+				return LOG_CURVE;
+			}
+		}, 50, 1000, 0);
+		replayer.setLuxFilter(medianWindow, smoothing, hysteresis);
+		return replayer.replay(trace);
+	}
+
+}
@@ -0,0 +1,144 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class OcclusionGateTest {
+	private static final int LIGHT = 0;
+	private static final int PROXIMITY = 1;
+
+	private final OcclusionGate mGate = new OcclusionGate();
+
+	@Test
+	public void acceptsUntilCovered() {
+		assertFalse(mGate.isNear());
+		assertTrue(mGate.accept(0));
+
+		mGate.setNear(true, 1000);
+		assertTrue(mGate.isNear());
+		assertFalse(mGate.accept(1000));
+		assertFalse(mGate.accept(60000));
+	}
+
+	@Test
+	public void waitsForLightSensorAfterUncovering() {
+		mGate.setNear(true, 1000);
+		mGate.setNear(false, 5000);
+		assertFalse(mGate.accept(5000));
+		assertFalse(mGate.accept(5000 + OcclusionGate.SETTLE_MS - 1));
+		assertTrue(mGate.accept(5000 + OcclusionGate.SETTLE_MS));
+	}
+
+	@Test
+	public void repeatedFarReadingsDoNotRestartSettling() {
+		mGate.setNear(true, 1000);
+		mGate.setNear(false, 2000);
+		mGate.setNear(false, 2200);
+		assertTrue(mGate.accept(2000 + OcclusionGate.SETTLE_MS));
+	}
+
+	@Test
+	public void resetAcceptsAtOnce() {
+		mGate.setNear(true, 1000);
+		mGate.reset();
+		assertFalse(mGate.isNear());
+		assertTrue(mGate.accept(1000));
+	}
+
+	@Test
+	public void readsBinaryAndRangedSensors() {
+		// Binary sensors report 0 or their maximum range
+		assertTrue(OcclusionGate.isNear(0, 1));
+		assertFalse(OcclusionGate.isNear(1, 1));
+		assertTrue(OcclusionGate.isNear(0, 5));
+		assertFalse(OcclusionGate.isNear(5, 5));
+
+		// Ranged ones report a distance in cm
+		assertTrue(OcclusionGate.isNear(3, 10));
+		assertFalse(OcclusionGate.isNear(OcclusionGate.NEAR_DISTANCE_CM, 10));
+		assertFalse(OcclusionGate.isNear(8, 10));
+	}
+
+	@Test
+	public void scriptedPocketTrip() {
+		// Desk light at 5 Hz, phone pocketed from 10s to 40s; the light
+		// sensor reads dark in the pocket and lags 200ms coming out
+		List<long[]> events = new ArrayList<long[]>();
+		for (long time = 0; time < 60000; time += 200) {
+			boolean dark = time >= 10000 && time < 40200;
+			events.add(new long[] { time, LIGHT, dark ? 0 : 300 });
+		}
+		events.add(new long[] { 9990, PROXIMITY, 0 });
+		events.add(new long[] { 40000, PROXIMITY, 5 });
+		sortByTime(events);
+
+		int accepted = 0;
+		int rejected = 0;
+		for (long[] event : events) {
+			if (event[1] == PROXIMITY) {
+				mGate.setNear(OcclusionGate.isNear(event[2], 5), event[0]);
+			} else if (mGate.accept(event[0])) {
+				assertEquals("lux at " + event[0], 300, event[2]);
+				accepted++;
+			} else {
+				rejected++;
+			}
+		}
+
+		// 10s to 40.3s
+		assertEquals(152, rejected);
+		assertEquals(300 - 152, accepted);
+	}
+
+	@Test
+	public void replayKeepsBrightnessWhileCovered() {
+		// As above through the replayer, with proximity per sample: the
+		// darkness never reaches the strategy, so brightness never drops
+		int samples = 60 * 5;
+		long[] time = new long[samples];
+		float[] lux = new float[samples];
+		boolean[] near = new boolean[samples];
+		for (int i = 0; i < samples; i++) {
+			time[i] = 1 + i * 200L;
+			near[i] = time[i] >= 10000 && time[i] < 40000;
+			lux[i] = time[i] >= 10000 && time[i] < 40200 ? 0 : 300;
+		}
+		LuxTrace trace = new LuxTrace("pocket", time, lux, null, near);
+		LuxTrace uncovered = new LuxTrace("pocket", time, lux, null);
+
+		TraceReplayer replayer = new TraceReplayer(new TraceReplayer.Setup() {
+			@Override
+			public AutoBrightnessStrategy createStrategy() {
+				return new DefaultStrategy();
+			}
+		}, 50, 1000, 0);
+		replayer.setLuxFilter(1, 0, 0);
+
+		TraceReplayer.Result gated = replayer.replay(trace);
+		assertTrue("occluded " + gated.occluded, gated.occluded > 0);
+		assertEquals(1, gated.brightnessWrites);
+
+		// Without proximity the pocket shows up as two changes
+		TraceReplayer.Result ungated = replayer.replay(uncovered);
+		assertEquals(0, ungated.occluded);
+		assertEquals(3, ungated.brightnessWrites);
+	}
+
+	private static void sortByTime(List<long[]> events) {
+		Collections.sort(events, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : 0;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,199 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PowerBudgetTest {
+	private static final long PERIOD = PowerBudget.CONTROL_PERIOD_MS;
+	private static final long HOUR = 60 * 60 * 1000;
+
+	// Simulated clock
+	private long mNow = 0;
+
+	@Test
+	public void noBudgetNeverSteps() {
+		PowerBudget budget = new PowerBudget(0);
+		budget.update(mNow);
+		for (int i = 0; i < 10; i++) {
+			assertFalse(period(budget, 10000));
+		}
+		assertEquals(0, budget.getLevel());
+		assertEquals(1, budget.getIntervalScale());
+		assertEquals(0, budget.getExtraHysteresis());
+	}
+
+	@Test
+	public void overBudgetStepsUpAlternately() {
+		PowerBudget budget = new PowerBudget(600);
+		budget.update(mNow);
+
+		int[] scale = { 1, 2, 2, 4, 4, 8, 8 };
+		int[] hysteresis = { 0, 0, 10, 10, 20, 20, 30 };
+		for (int level = 1; level <= PowerBudget.MAX_LEVEL; level++) {
+			// 2400/h
+			assertTrue(period(budget, 200));
+			assertEquals(level, budget.getLevel());
+			assertEquals(scale[level], budget.getIntervalScale());
+			assertEquals(hysteresis[level], budget.getExtraHysteresis());
+		}
+
+		assertFalse(period(budget, 200));
+		assertEquals(PowerBudget.MAX_LEVEL, budget.getLevel());
+	}
+
+	@Test
+	public void relaxesOnlyWellUnderBudget() {
+		PowerBudget budget = new PowerBudget(600);
+		budget.update(mNow);
+		period(budget, 200);
+		period(budget, 200);
+		assertEquals(2, budget.getLevel());
+
+		// At 420/h, 70% of the budget, the smoothed rate takes three periods
+		// to fall under budget, then holds the level
+		for (int i = 0; i < 10; i++) {
+			period(budget, 35);
+		}
+		assertEquals(5, budget.getLevel());
+
+		// Under 60% steps back down, one period at a time
+		for (int level = 4; level >= 0; level--) {
+			assertTrue(period(budget, 5));
+			assertEquals(level, budget.getLevel());
+		}
+		assertFalse(period(budget, 5));
+	}
+
+	@Test
+	public void ignoresPeriodsWhenNothingRan() {
+		PowerBudget budget = new PowerBudget(600);
+		budget.update(mNow);
+
+		// Screen off for an hour: a stale period, not a low rate
+		for (int i = 0; i < 10000; i++) {
+			budget.onWakeUp();
+		}
+		mNow += HOUR;
+		assertFalse(budget.update(mNow));
+		assertEquals(0, budget.getLevel());
+		assertEquals(0, budget.getWakeUpRate(), 0);
+	}
+
+	@Test
+	public void removingBudgetResetsLevel() {
+		PowerBudget budget = new PowerBudget(600);
+		budget.update(mNow);
+		period(budget, 200);
+		assertEquals(1, budget.getLevel());
+
+		assertTrue(budget.setBudget(0));
+		assertEquals(0, budget.getLevel());
+		assertFalse(budget.setBudget(300));
+	}
+
+	@Test
+	public void accountsSensorTimeAndTotals() {
+		PowerBudget budget = new PowerBudget(0);
+		budget.onSensorRegistered(1000);
+		budget.onSensorRegistered(1500);
+		assertEquals(500, budget.getSensorActiveMs(1500));
+		budget.onSensorUnregistered(3000);
+		budget.onSensorUnregistered(4000);
+		budget.onSensorRegistered(10000);
+		assertEquals(3000, budget.getSensorActiveMs(11000));
+
+		budget.onWakeUp();
+		budget.onWrite();
+		budget.onWrite();
+		budget.onCpu(1500);
+		assertEquals(1, budget.getWakeUps());
+		assertEquals(2, budget.getWrites());
+		assertEquals(1500, budget.getCpuNs());
+	}
+
+	@Test
+	public void replayedBudgetsHold() {
+		// Four hours under flickering light that never looks steady, so the
+		// scheduler alone would keep sampling every 2s
+		LuxTrace trace = busyTrace(4);
+		long hours = 4;
+
+		TraceReplayer.Result free = replay(trace, 0);
+		int freeRate = (int) (wakeUps(free) / hours);
+		assertEquals(0, free.budgetLevel);
+		assertTrue("unbudgeted " + freeRate + "/h", freeRate > 4000);
+
+		TraceReplayer.Result previous = free;
+		for (int wakeUpsPerHour : new int[] { 2000, 1000 }) {
+			TraceReplayer.Result result = replay(trace, wakeUpsPerHour);
+			int rate = (int) (wakeUps(result) / hours);
+			assertTrue("budget " + wakeUpsPerHour + ": " + rate + "/h",
+					rate <= wakeUpsPerHour);
+			// Wider hysteresis means fewer brightness changes too
+			assertTrue(result.brightnessWrites < previous.brightnessWrites);
+			previous = result;
+		}
+
+		// The first half hour runs over while the controller steps up
+		TraceReplayer.Result tight = replay(trace, 500);
+		assertTrue("budget 500: " + wakeUps(tight) / hours + "/h",
+				wakeUps(tight) / hours <= 500 * 5 / 4);
+		assertTrue(tight.brightnessWrites < previous.brightnessWrites);
+
+		// Too tight to meet: the controller tops out rather than going on
+		TraceReplayer.Result tooTight = replay(trace, 100);
+		assertEquals(PowerBudget.MAX_LEVEL, tooTight.budgetLevel);
+	}
+
+	/**
+	 * Let one control period pass with this many wake-ups and run the
+	 * controller.
+	 */
+	private boolean period(PowerBudget budget, int wakeUps) {
+		for (int i = 0; i < wakeUps; i++) {
+			budget.onWakeUp();
+		}
+		mNow += PERIOD;
+		return budget.update(mNow);
+	}
+
+	/**
+	 * Wake-ups as the controller counts them: readings and ramp steps.
+	 */
+	private static long wakeUps(TraceReplayer.Result result) {
+		return result.wakeUps + result.rampSteps;
+	}
+
+	private static TraceReplayer.Result replay(LuxTrace trace,
+			int wakeUpsPerHour) {
+		TraceReplayer replayer = new TraceReplayer(new TraceReplayer.Setup() {
+			@Override
+			public AutoBrightnessStrategy createStrategy() {
+				return LuxFilterTest.LOG_CURVE;
+			}
+		}, 50, 2000, 500);
+		replayer.setWakeUpBudget(wakeUpsPerHour);
+		return replayer.replay(trace);
+	}
+
+	/**
+	 * 5 Hz readings of a 400 lux room with +-40% flicker.
+	 */
+	private static LuxTrace busyTrace(int hours) {
+		int samples = hours * 60 * 60 * 5;
+		long[] time = new long[samples];
+		float[] lux = new float[samples];
+		Random random = new Random(4);
+		for (int i = 0; i < samples; i++) {
+			time[i] = 1 + i * 200L;
+			lux[i] = 400 * (0.6f + 0.8f * random.nextFloat());
+		}
+		return new LuxTrace("busy", time, lux, null);
+	}
+
+}
@@ -0,0 +1,166 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SenseSchedulerTest {
+	private static final long BASE = 2000;
+	private static final int BACKOFF = Data.MAX_SENSE_BACKOFF;
+
+	private final SenseScheduler mScheduler = new SenseScheduler(BASE, BACKOFF);
+	// Simulated clock, advanced by each interval the scheduler asks for
+	private long mNow = 0;
+
+	@Test
+	public void steadyLightBacksOffToCap() {
+		assertEquals(BASE, read(100));
+		assertEquals(2 * BASE, read(100));
+		assertEquals(4 * BASE, read(100));
+		assertEquals(8 * BASE, read(100));
+		for (int i = 0; i < 20; i++) {
+			assertEquals(BACKOFF * BASE, read(100));
+		}
+		assertEquals(0, mScheduler.getSnapBacks());
+	}
+
+	@Test
+	public void jumpSnapsBack() {
+		settle(100);
+		assertEquals(BASE, read(160));
+		assertEquals(1, mScheduler.getSnapBacks());
+
+		// And a fall just the same
+		settle(160);
+		assertEquals(BASE, read(90));
+		assertEquals(2, mScheduler.getSnapBacks());
+	}
+
+	@Test
+	public void smallChangeDoesNotSnapBack() {
+		settle(100);
+		assertEquals(BACKOFF * BASE, read(120));
+		assertEquals(0, mScheduler.getSnapBacks());
+	}
+
+	@Test
+	public void darkAndBrightAlike() {
+		SenseScheduler dark = new SenseScheduler(BASE, BACKOFF);
+		SenseScheduler bright = new SenseScheduler(BASE, BACKOFF);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(dark.nextInterval(10), bright.nextInterval(10000));
+		}
+		assertEquals(BASE, dark.nextInterval(20));
+		assertEquals(BASE, bright.nextInterval(20000));
+	}
+
+	@Test
+	public void flickerStaysFast() {
+		// +-40% lamp flicker never looks steady
+		Random random = new Random(5);
+		long total = 0;
+		int readings = 200;
+		for (int i = 0; i < readings; i++) {
+			total += read(300 * (0.6f + 0.8f * random.nextFloat()));
+		}
+		assertTrue("mean interval " + total / readings,
+				total / readings < 2 * BASE);
+	}
+
+	@Test
+	public void resetGoesBackToBase() {
+		settle(100);
+		mScheduler.reset();
+		assertEquals(BASE, mScheduler.getInterval());
+		// The next reading starts a new history, even at another level
+		assertEquals(BASE, read(5000));
+		assertEquals(2 * BASE, read(5000));
+		assertEquals(0, mScheduler.getSnapBacks());
+	}
+
+	@Test
+	public void baseIntervalChangeKeepsBackoffInRange() {
+		settle(100);
+		mScheduler.setBaseInterval(BASE / 2);
+		assertEquals(BACKOFF * BASE / 2, mScheduler.getInterval());
+
+		mScheduler.setBaseInterval(BASE * 4);
+		assertEquals(BASE * 4, mScheduler.getInterval());
+		// A jump snaps back to the new base
+		assertEquals(BASE * 4, read(400));
+	}
+
+	@Test
+	public void scriptedEveningWakesRarelyAndReactsFast() {
+		// An hour at the desk, lights off for the evening, an hour of TV;
+		// the light level is read off the clock, as the sensor would
+		long hour = 60 * 60 * 1000;
+		long lightsOff = hour;
+		long snappedAt = -1;
+		int wakeUps = 0;
+
+		while (mNow < 2 * hour) {
+			float lux = mNow < lightsOff ? 400 : 8;
+			long interval = read(lux);
+			wakeUps++;
+			if (snappedAt < 0 && mScheduler.getSnapBacks() > 0) {
+				snappedAt = mNow - interval;
+			}
+		}
+
+		// A fixed 2s interval would take 3600 readings
+		assertTrue("wake-ups " + wakeUps, wakeUps < 2 * hour / BASE / 6);
+		// Noticed on the first reading after the change
+		assertTrue("snapped at " + snappedAt, snappedAt >= lightsOff
+				&& snappedAt < lightsOff + BACKOFF * BASE);
+		assertEquals(1, mScheduler.getSnapBacks());
+		assertEquals(wakeUps, mScheduler.getWakeUps());
+	}
+
+	@Test
+	public void replayerSpacesReadingsLikeTheService() {
+		// Ten minutes steady, then a step: the replayer should back off
+		// and then catch the step within the backed-off interval
+		int samples = 20 * 60 * 5;
+		long[] time = new long[samples];
+		float[] lux = new float[samples];
+		for (int i = 0; i < samples; i++) {
+			time[i] = 1 + i * 200L;
+			lux[i] = time[i] < 10 * 60 * 1000 ? 200 : 2000;
+		}
+		LuxTrace trace = new LuxTrace("step", time, lux, null);
+
+		TraceReplayer replayer = new TraceReplayer(new TraceReplayer.Setup() {
+			@Override
+			public AutoBrightnessStrategy createStrategy() {
+				return new DefaultStrategy();
+			}
+		}, 50, BASE, 0);
+		replayer.setLuxFilter(1, 0, 0);
+		TraceReplayer.Result result = replayer.replay(trace);
+
+		// 600 readings at a fixed interval
+		assertTrue("wake-ups " + result.wakeUps, result.wakeUps < 100);
+		assertEquals(1, result.snapBacks);
+		assertEquals(2, result.brightnessWrites);
+		assertTrue("settle " + result.maxSettleMs,
+				result.maxSettleMs <= BACKOFF * BASE);
+	}
+
+	private long read(float lux) {
+		long interval = mScheduler.nextInterval(lux);
+		mNow += interval;
+		return interval;
+	}
+
+	private void settle(float lux) {
+		for (int i = 0; i < 10; i++) {
+			read(lux);
+		}
+		assertEquals(BACKOFF * BASE, mScheduler.getInterval());
+	}
+
+}
@@ -0,0 +1,158 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Drives synthetic light readings through BrightnessPipeline, the same
+ * code MainService.onSensorChanged calls (occlusion gate, scheduler,
+ * filters, strategy, ramp, trace, warm start, metrics), and checks that
+ * nothing is allocated once warmed up.
+ */
+public class SensorPathAllocationTest {
+	static private final int READINGS = 2000;
+	static private final int WARM_UP_PASSES = 10;
+	// The JIT recompiling now and then can account a few bytes to this
+	// thread; a real per-reading allocation shows up on every pass
+	static private final int MEASURED_PASSES = 5;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private final Metrics mMetrics = new Metrics();
+	private final StatusSnapshot mStatus = new StatusSnapshot();
+	private TraceRecorder mRecorder;
+	private BrightnessPipeline mPipeline;
+
+	private long mNow = 1;
+	private long mNextStep = Long.MAX_VALUE;
+
+	private final BrightnessPipeline.Host mHost = new BrightnessPipeline.Host() {
+		@Override
+		public long uptimeMillis() {
+			return mNow;
+		}
+
+		@Override
+		public long currentTimeMillis() {
+			return mNow;
+		}
+
+		@Override
+		public void publishLux(float lux) {
+		}
+
+		@Override
+		public boolean writeBrightness(int brightness) {
+			mStatus.publish(mPipeline.getLux(), brightness, 50);
+			return true;
+		}
+
+		@Override
+		public BrightnessSink getWindowSink() {
+			return null;
+		}
+
+		@Override
+		public void scheduleRampStep(long delayMs) {
+			mNextStep = mNow + delayMs;
+		}
+
+		@Override
+		public void cancelRampStep() {
+			mNextStep = Long.MAX_VALUE;
+		}
+
+		@Override
+		public void onPowerBudgetChanged() {
+		}
+
+		@Override
+		public void record(float lux, int level, int brightness,
+				boolean written) {
+			mRecorder.record(mNow, lux, level, brightness, written);
+		}
+	};
+
+	@Test
+	public void steadyStateDoesNotAllocate() throws Exception {
+		com.sun.management.ThreadMXBean threads = threadBean();
+		assumeTrue(threads != null
+				&& threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		File dir = mFolder.newFolder();
+		mRecorder = new TraceRecorder(dir);
+		WarmStart warmStart = new WarmStart(new File(dir, "warm_start.bin"));
+		warmStart.open();
+		mPipeline = new BrightnessPipeline(mHost, mMetrics, warmStart,
+				new LearningStrategy(new LookupTableStrategy(
+						new DefaultStrategy())));
+		mPipeline.setSenseInterval(2000);
+		// No budget: a level change rebuilds the filter, at most once a
+		// budget period, which the sped-up clock here would make look like
+		// per-reading garbage. Its accounting still runs on every reading.
+		mPipeline.setLuxFilter(3, 50, 10);
+		mPipeline.setRampDuration(500);
+		mPipeline.setBrightness(0);
+
+		// Flickering light with steps, precomputed so the loop only reads
+		float[] lux = new float[READINGS];
+		for (int i = 0; i < lux.length; i++) {
+			float base = (i / 500) % 2 == 0 ? 80 : 900;
+			lux[i] = base * (1 + 0.3f * (float) Math.sin(i * 0.7));
+		}
+
+		// Several passes so every branch has been taken and the loop is
+		// compiled as a whole method, not swapped in while being measured
+		for (int pass = 0; pass < WARM_UP_PASSES; pass++) {
+			drive(lux);
+		}
+
+		long id = Thread.currentThread().getId();
+		long overhead = threads.getThreadAllocatedBytes(id);
+		overhead = threads.getThreadAllocatedBytes(id) - overhead;
+		long allocated = Long.MAX_VALUE;
+		for (int pass = 0; pass < MEASURED_PASSES && allocated > 0; pass++) {
+			long before = threads.getThreadAllocatedBytes(id);
+			drive(lux);
+			allocated = Math.min(allocated, threads.getThreadAllocatedBytes(id)
+					- before - overhead);
+		}
+
+		assertEquals("bytes allocated over " + READINGS + " readings", 0,
+				allocated);
+	}
+
+	private void drive(float[] lux) {
+		for (int i = 0; i < lux.length; i++) {
+			onReading(lux[i], i % 97 == 0);
+		}
+	}
+
+	private void onReading(float raw, boolean near) {
+		mPipeline.setNear(near);
+		long next = mNow + mPipeline.onReading(raw);
+		// Ramp steps due before the next reading, as the handler would run
+		while (mNextStep <= next) {
+			mNow = mNextStep;
+			mNextStep = Long.MAX_VALUE;
+			mPipeline.stepRamp();
+		}
+		mNow = next;
+	}
+
+	private static com.sun.management.ThreadMXBean threadBean() {
+		Object bean = ManagementFactory.getThreadMXBean();
+		return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean
+				: null;
+	}
+
+}
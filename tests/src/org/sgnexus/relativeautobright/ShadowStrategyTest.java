@@ -0,0 +1,74 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ShadowStrategyTest {
+	private final Metrics mMetrics = new Metrics();
+
+	@Test
+	public void shadowNeverChangesOutput() {
+		ShadowStrategy strategy = new ShadowStrategy(fixed(100), fixed(180),
+				mMetrics);
+		for (int level = 0; level <= 100; level += 10) {
+			assertEquals(100, strategy.computeBrightness(500, level));
+		}
+	}
+
+	@Test
+	public void countsDivergence() {
+		Settable shadow = new Settable();
+		ShadowStrategy strategy = new ShadowStrategy(fixed(100), shadow,
+				mMetrics);
+		assertEquals("shadow differed on 0 of 0 readings, mean 0 max 0",
+				strategy.toString());
+
+		shadow.value = 100;
+		strategy.computeBrightness(10, 50);
+		assertEquals(0, strategy.getLastDivergence());
+
+		shadow.value = 90;
+		strategy.computeBrightness(10, 50);
+		assertEquals(-10, strategy.getLastDivergence());
+
+		shadow.value = 130;
+		strategy.computeBrightness(10, 50);
+		assertEquals(30, strategy.getLastDivergence());
+
+		// Mean and max of the readings that differed, by magnitude
+		assertEquals("shadow differed on 2 of 3 readings, mean 20 max 30",
+				strategy.toString());
+	}
+
+	@Test
+	public void timesOnlyTheShadow() {
+		ShadowStrategy strategy = new ShadowStrategy(fixed(100), fixed(120),
+				mMetrics);
+		strategy.computeBrightness(10, 50);
+		strategy.computeBrightness(20, 50);
+
+		// The caller times the whole call
+		assertEquals(2, mMetrics.shadowTime.count());
+		assertEquals(0, mMetrics.strategyTime.count());
+	}
+
+	private static AutoBrightnessStrategy fixed(final int brightness) {
+		return new AutoBrightnessStrategy() {
+			@Override
+			int computeBrightness(float lux, int relativeLevel) {
+				return brightness;
+			}
+		};
+	}
+
+	private static class Settable extends AutoBrightnessStrategy {
+		int value;
+
+		@Override
+		int computeBrightness(float lux, int relativeLevel) {
+			return value;
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StateStoreTest {
+	private static final byte[] PAYLOAD = { 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mFile;
+	private StateStore mStore;
+
+	@Before
+	public void setUp() {
+		mFile = new File(mFolder.getRoot(), "state.bin");
+		mStore = new StateStore(mFile, 3);
+	}
+
+	@Test
+	public void roundTrips() throws IOException {
+		mStore.save(PAYLOAD);
+		assertArrayEquals(PAYLOAD, bytes(mStore.load()));
+		assertEquals(StateStore.HEADER_SIZE + PAYLOAD.length, mFile.length());
+
+		byte[] other = { 42 };
+		mStore.save(other);
+		assertArrayEquals(other, bytes(mStore.load()));
+	}
+
+	@Test
+	public void roundTripsEmptyPayload() throws IOException {
+		mStore.save(new byte[0]);
+		assertArrayEquals(new byte[0], bytes(mStore.load()));
+	}
+
+	@Test
+	public void missingFileLoadsNothing() {
+		assertNull(mStore.load());
+	}
+
+	@Test
+	public void discardsBadMagic() throws IOException {
+		mStore.save(PAYLOAD);
+		corrupt(0);
+		assertNull(mStore.load());
+		assertFalse(mFile.exists());
+	}
+
+	@Test
+	public void discardsBadChecksum() throws IOException {
+		mStore.save(PAYLOAD);
+		corrupt(StateStore.HEADER_SIZE + 4);
+		assertNull(mStore.load());
+		assertFalse(mFile.exists());
+	}
+
+	@Test
+	public void discardsTruncatedPayload() throws IOException {
+		mStore.save(PAYLOAD);
+		truncate(StateStore.HEADER_SIZE + PAYLOAD.length - 1);
+		assertNull(mStore.load());
+		assertFalse(mFile.exists());
+	}
+
+	@Test
+	public void discardsTruncatedHeader() throws IOException {
+		mStore.save(PAYLOAD);
+		truncate(StateStore.HEADER_SIZE - 1);
+		assertNull(mStore.load());
+		assertFalse(mFile.exists());
+	}
+
+	@Test
+	public void ignoresOtherVersion() throws IOException {
+		mStore.save(PAYLOAD);
+		assertNull(new StateStore(mFile, 4).load());
+		// Left in place; the next save replaces it
+		assertTrue(mFile.exists());
+		assertArrayEquals(PAYLOAD, bytes(mStore.load()));
+	}
+
+	@Test
+	public void ignoresLeftoverTempFile() throws IOException {
+		mStore.save(PAYLOAD);
+
+		// As left by a save that died before the rename
+		File temp = new File(mFile.getPath() + ".tmp");
+		RandomAccessFile file = new RandomAccessFile(temp, "rw");
+		file.write(new byte[100]);
+		file.close();
+
+		assertArrayEquals(PAYLOAD, bytes(mStore.load()));
+
+		byte[] other = { 7, 7 };
+		mStore.save(other);
+		assertFalse(temp.exists());
+		assertArrayEquals(other, bytes(mStore.load()));
+	}
+
+	@Test
+	public void savesAsync() throws Exception {
+		mStore.saveAsync(PAYLOAD);
+		for (int i = 0; i < 100 && mStore.load() == null; i++) {
+			Thread.sleep(10);
+		}
+		assertNotNull(mStore.load());
+		assertArrayEquals(PAYLOAD, bytes(mStore.load()));
+	}
+
+	private void corrupt(long offset) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			file.seek(offset);
+			int value = file.read();
+			file.seek(offset);
+			file.write(value ^ 0xFF);
+		} finally {
+			file.close();
+		}
+	}
+
+	private void truncate(long length) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			file.setLength(length);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		assertNotNull(buffer);
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+}
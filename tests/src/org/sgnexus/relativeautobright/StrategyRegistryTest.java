@@ -0,0 +1,66 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StrategyRegistryTest {
+	private final Metrics mMetrics = new Metrics();
+	private final DefaultStrategy mCurve = new DefaultStrategy();
+	private final LookupTableStrategy mTable = new LookupTableStrategy(mCurve);
+	private final StrategyRegistry mRegistry = new StrategyRegistry();
+
+	@Before
+	public void setUp() {
+		mRegistry.register(Data.STRATEGY_TABLE, mTable);
+		mRegistry.register(Data.STRATEGY_CURVE, mCurve);
+	}
+
+	@Test
+	public void getsByName() {
+		assertSame(mTable, mRegistry.get(Data.STRATEGY_TABLE));
+		assertSame(mCurve, mRegistry.get(Data.STRATEGY_CURVE));
+	}
+
+	@Test
+	public void unknownNamesFallBackToFirstRegistered() {
+		assertSame(mTable, mRegistry.get("nonsense"));
+		assertSame(mTable, mRegistry.get(null));
+		assertSame(mTable, mRegistry.select("nonsense", StrategyRegistry.NONE,
+				mMetrics));
+	}
+
+	@Test
+	public void noShadowSelectsLiveStrategy() {
+		assertSame(mCurve, mRegistry.select(Data.STRATEGY_CURVE,
+				StrategyRegistry.NONE, mMetrics));
+		assertSame(mCurve, mRegistry.select(Data.STRATEGY_CURVE, "nonsense",
+				mMetrics));
+		assertSame(mCurve, mRegistry.select(Data.STRATEGY_CURVE, null,
+				mMetrics));
+	}
+
+	@Test
+	public void shadowingItselfSelectsLiveStrategy() {
+		assertSame(mCurve, mRegistry.select(Data.STRATEGY_CURVE,
+				Data.STRATEGY_CURVE, mMetrics));
+		// Also when the live name fell back to the shadow's strategy
+		assertSame(mTable, mRegistry.select("nonsense", Data.STRATEGY_TABLE,
+				mMetrics));
+	}
+
+	@Test
+	public void differentShadowIsWrapped() {
+		AutoBrightnessStrategy selected = mRegistry.select(
+				Data.STRATEGY_TABLE, Data.STRATEGY_CURVE, mMetrics);
+		assertTrue(selected instanceof ShadowStrategy);
+		for (float lux = 0; lux < 2000; lux += 7.5f) {
+			assertEquals(mTable.computeBrightness(lux, 50),
+					selected.computeBrightness(lux, 50));
+		}
+	}
+
+}
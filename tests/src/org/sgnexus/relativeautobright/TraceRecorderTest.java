@@ -0,0 +1,115 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TraceRecorderTest {
+	private static final int FILE_RECORDS = TraceRecorder.FILE_RECORDS;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	// Time of the next record; never 0, which marks the end of a file
+	private long mTime = 1;
+
+	@Test
+	public void exportsRecords() throws IOException {
+		TraceRecorder recorder = new TraceRecorder(mFolder.getRoot());
+		recorder.record(1000, 12.5f, 40, 90, true);
+		recorder.record(2000, 13, 40, 90, false);
+		recorder.flush();
+
+		String[] lines = export(recorder);
+		assertEquals(3, lines.length);
+		assertEquals("timeMs,lux,relativeLevel,brightness,written", lines[0]);
+		assertEquals("1000,12.5,40,90,1", lines[1]);
+		assertEquals("2000,13.0,40,90,0", lines[2]);
+	}
+
+	@Test
+	public void appendsAfterRestart() throws IOException {
+		TraceRecorder recorder = new TraceRecorder(mFolder.getRoot());
+		record(recorder, 100);
+		recorder.flush();
+
+		recorder = new TraceRecorder(mFolder.getRoot());
+		assertContiguous(export(recorder), 1, 100);
+		record(recorder, 50);
+		recorder.flush();
+
+		assertContiguous(export(recorder), 1, 150);
+	}
+
+	@Test
+	public void rollsOverWhenFull() throws IOException {
+		TraceRecorder recorder = new TraceRecorder(mFolder.getRoot());
+		record(recorder, FILE_RECORDS + 100);
+		recorder.flush();
+		assertContiguous(export(recorder), 1, FILE_RECORDS + 100);
+
+		// Filling the second file clears the first for the newest records
+		record(recorder, FILE_RECORDS);
+		recorder.flush();
+		assertContiguous(export(recorder), FILE_RECORDS + 1, FILE_RECORDS + 100);
+	}
+
+	@Test
+	public void appendsAfterRestartInSecondFile() throws IOException {
+		TraceRecorder recorder = new TraceRecorder(mFolder.getRoot());
+		record(recorder, FILE_RECORDS + 100);
+		recorder.flush();
+
+		recorder = new TraceRecorder(mFolder.getRoot());
+		record(recorder, 100);
+		recorder.flush();
+		assertContiguous(export(recorder), 1, FILE_RECORDS + 200);
+	}
+
+	@Test
+	public void rollsOverAfterRestartWithFullFile() throws IOException {
+		TraceRecorder recorder = new TraceRecorder(mFolder.getRoot());
+		record(recorder, FILE_RECORDS);
+		recorder.flush();
+
+		recorder = new TraceRecorder(mFolder.getRoot());
+		record(recorder, 10);
+		recorder.flush();
+		assertContiguous(export(recorder), 1, FILE_RECORDS + 10);
+
+		recorder = new TraceRecorder(mFolder.getRoot());
+		record(recorder, FILE_RECORDS);
+		recorder.flush();
+		assertContiguous(export(recorder), FILE_RECORDS + 1, FILE_RECORDS + 10);
+	}
+
+	private void record(TraceRecorder recorder, int count) {
+		for (int i = 0; i < count; i++) {
+			recorder.record(mTime++, 100, 50, 120, false);
+		}
+	}
+
+	/**
+	 * Check the export holds count records with consecutive times from
+	 * first.
+	 */
+	private static void assertContiguous(String[] lines, long first, int count) {
+		assertEquals(count + 1, lines.length);
+		for (int i = 0; i < count; i++) {
+			String time = lines[i + 1].substring(0, lines[i + 1].indexOf(','));
+			assertEquals(first + i, Long.parseLong(time));
+		}
+	}
+
+	private static String[] export(TraceRecorder recorder) throws IOException {
+		StringWriter writer = new StringWriter();
+		recorder.exportCsv(writer);
+		return writer.toString().split("\r?\n");
+	}
+
+}
@@ -0,0 +1,154 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TraceReplayerTest {
+	private static final long INTERVAL = 1000;
+
+	// Brightness is the lux, so expected values can be read off the trace
+	private static final AutoBrightnessStrategy IDENTITY = new AutoBrightnessStrategy() {
+		@Override
+		int computeBrightness(float lux, int relativeLevel) {
+			return Math.min(Math.round(lux), Data.MAX_BRIGHTNESS);
+		}
+	};
+
+	@Test
+	public void scriptedStepWithoutRamp() {
+		TraceReplayer.Result result = replayer(0).replay(step("step"));
+
+		// Readings at 0, 1000, 3000 and 7000 back off to the cap; the step
+		// at 15000 snaps back and 16000-19000 are read at the base interval
+		assertEquals("step", result.trace);
+		assertEquals(19000, result.simulatedMs);
+		assertEquals(9, result.wakeUps);
+		assertEquals(1, result.snapBacks);
+		assertEquals(0, result.rampSteps);
+		assertEquals(0, result.windowSteps);
+		assertEquals(2, result.brightnessWrites);
+		assertEquals(100, result.maxJump);
+		assertEquals(0, result.occluded);
+		assertEquals(0, result.budgetLevel);
+		assertEquals(2, result.settles);
+		assertEquals(0, result.maxSettleMs);
+		assertEquals(0, result.totalSettleMs);
+		// Labelled 100 throughout: five readings 100 off after the step
+		assertEquals(9, result.errorSamples);
+		assertEquals(500, result.totalError);
+		assertEquals(500 / 9.0f, result.meanError(), 0.001f);
+	}
+
+	@Test
+	public void scriptedStepWithRamp() {
+		TraceReplayer.Result result = replayer(500).replay(step("ramp"));
+
+		// Nothing to ramp from at first, so that write is a jump; the step
+		// ramps over 500ms in 100ms steps, the last landing on the target:
+		// 117, 136, 156, 177, 200
+		assertEquals(9, result.wakeUps);
+		assertEquals(5, result.rampSteps);
+		assertEquals(0, result.windowSteps);
+		assertEquals(6, result.brightnessWrites);
+		assertEquals(23, result.maxJump);
+		assertEquals(2, result.settles);
+		assertEquals(500, result.maxSettleMs);
+		assertEquals(500, result.totalSettleMs);
+		assertEquals(250, result.meanSettleMs());
+		assertEquals(500, result.totalError);
+	}
+
+	@Test
+	public void windowTakesRampSteps() {
+		TraceReplayer replayer = replayer(500);
+		replayer.setWindowInFront(true);
+		TraceReplayer.Result result = replayer.replay(step("window"));
+
+		// Every step shows in the window, including the one starting the
+		// ramp; the setting catches up once, then holds for
+		// BRIGHTNESS_RECONCILE_INTERVAL until the ramp ends
+		assertEquals(5, result.rampSteps);
+		assertEquals(6, result.windowSteps);
+		assertEquals(3, result.brightnessWrites);
+		assertEquals(2, result.settles);
+		assertEquals(500, result.maxSettleMs);
+	}
+
+	@Test
+	public void emptyTrace() {
+		LuxTrace empty = new LuxTrace("empty", new long[0], new float[0], null);
+		TraceReplayer.Result result = replayer(500).replay(empty);
+
+		assertEquals("empty", result.trace);
+		assertEquals(0, result.simulatedMs);
+		assertEquals(0, result.wakeUps);
+		assertEquals(0, result.brightnessWrites);
+		assertEquals(0, result.settles);
+		assertEquals(0, result.meanSettleMs());
+		assertEquals(0, result.meanError(), 0);
+	}
+
+	@Test
+	public void replayAllKeepsOrder() throws Exception {
+		List<LuxTrace> traces = new ArrayList<LuxTrace>();
+		for (int i = 0; i < 12; i++) {
+			// Longer traces first, so they tend to finish last
+			traces.add(steady("trace-" + i, 2000 - i * 150, 20 + i * 10));
+		}
+
+		TraceReplayer replayer = replayer(500);
+		List<TraceReplayer.Result> results = replayer.replayAll(traces, 4);
+
+		assertEquals(traces.size(), results.size());
+		for (int i = 0; i < traces.size(); i++) {
+			TraceReplayer.Result alone = replayer.replay(traces.get(i));
+			TraceReplayer.Result result = results.get(i);
+			assertEquals(traces.get(i).name, result.trace);
+			assertEquals(traces.get(i).duration(), result.simulatedMs);
+			assertEquals(alone.wakeUps, result.wakeUps);
+			assertEquals(alone.brightnessWrites, result.brightnessWrites);
+		}
+	}
+
+	private static TraceReplayer replayer(long rampMs) {
+		TraceReplayer replayer = new TraceReplayer(new TraceReplayer.Setup() {
+			@Override
+			public AutoBrightnessStrategy createStrategy() {
+				return IDENTITY;
+			}
+		}, 50, INTERVAL, rampMs);
+		replayer.setLuxFilter(1, 0, 0);
+		return replayer;
+	}
+
+	/**
+	 * 100 lux for ten seconds, then 200 lux for ten, one sample a second,
+	 * labelled 100 throughout.
+	 */
+	private static LuxTrace step(String name) {
+		long[] time = new long[20];
+		float[] lux = new float[20];
+		short[] label = new short[20];
+		for (int i = 0; i < time.length; i++) {
+			time[i] = i * 1000L;
+			lux[i] = i < 10 ? 100 : 200;
+			label[i] = 100;
+		}
+		return new LuxTrace(name, time, lux, label);
+	}
+
+	private static LuxTrace steady(String name, int samples, float value) {
+		long[] time = new long[samples];
+		float[] lux = new float[samples];
+		for (int i = 0; i < samples; i++) {
+			time[i] = i * 1000L;
+			lux[i] = value;
+		}
+		return new LuxTrace(name, time, lux, null);
+	}
+
+}
@@ -0,0 +1,103 @@
+package org.sgnexus.relativeautobright;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WarmStartTest {
+	private static final long NOW = 1500000000000L;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private final DefaultStrategy mStrategy = new DefaultStrategy();
+	private File mFile;
+
+	@Before
+	public void setUp() {
+		mFile = new File(mFolder.getRoot(), "warm");
+	}
+
+	@Test
+	public void startsEmpty() throws IOException {
+		WarmStart warmStart = open();
+		assertFalse(warmStart.hasState());
+		assertEquals(0, warmStart.confidence(NOW), 0);
+		assertEquals(-1, warmStart.predict(NOW, mStrategy, 50, 100));
+	}
+
+	@Test
+	public void survivesReopening() throws IOException {
+		open().save(NOW, 250, 140);
+
+		WarmStart warmStart = open();
+		assertTrue(warmStart.hasState());
+		assertEquals(250, warmStart.getLux(), 0);
+		assertEquals(140, warmStart.getBrightness());
+		assertEquals(1, warmStart.confidence(NOW), 0);
+	}
+
+	@Test
+	public void discardsTornSave() throws IOException {
+		open().save(NOW, 250, 140);
+
+		// As left by a save that died halfway: an odd sequence, whatever
+		// the byte order
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			file.seek(4);
+			file.write(new byte[] { 1, 1, 1, 1 });
+		} finally {
+			file.close();
+		}
+
+		assertFalse(open().hasState());
+	}
+
+	@Test
+	public void blendsTowardsCurrentAsReadingAges() throws IOException {
+		WarmStart warmStart = open();
+		warmStart.save(NOW, 1000, 0);
+		int saved = mStrategy.computeBrightness(1000, 50);
+		int current = 10;
+
+		assertEquals(saved, warmStart.predict(NOW, mStrategy, 50, current));
+
+		int previous = saved;
+		for (long age = 60000; age < 2 * 60 * 60 * 1000; age *= 2) {
+			int predicted = warmStart.predict(NOW + age, mStrategy, 50,
+					current);
+			if (predicted < 0) {
+				assertTrue(warmStart.confidence(NOW + age) < WarmStart.MIN_CONFIDENCE);
+				return;
+			}
+			assertTrue("age " + age, predicted <= previous
+					&& predicted >= current);
+			previous = predicted;
+		}
+		throw new AssertionError("never gave up on the saved reading");
+	}
+
+	@Test
+	public void distrustsClockGoingBack() throws IOException {
+		WarmStart warmStart = open();
+		warmStart.save(NOW, 250, 140);
+		assertEquals(0, warmStart.confidence(NOW - 1000), 0);
+	}
+
+	private WarmStart open() throws IOException {
+		WarmStart warmStart = new WarmStart(mFile);
+		warmStart.open();
+		return warmStart;
+	}
+
+}